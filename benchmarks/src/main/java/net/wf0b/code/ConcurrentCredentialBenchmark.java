@@ -0,0 +1,11 @@
+package net.wf0b.code;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * The benchmarks of {@link CredentialBenchmark}, run on several threads sharing one store, to show contention in
+ * the lookup, decrypt and connect stages.
+ */
+@Threads(8)
+public class ConcurrentCredentialBenchmark extends CredentialBenchmark {
+}
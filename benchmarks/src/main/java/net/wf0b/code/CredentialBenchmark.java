@@ -0,0 +1,219 @@
+package net.wf0b.code;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks of the stages of getting a connection: reading the store, looking up a credential, deriving the key,
+ * decrypting and encrypting a password, and connecting to an embedded Derby database.
+ * <p>Each trial runs against a credentials file of <code>size</code> entries in the given <code>format</code>,
+ * written to a temporary home directory. These benchmarks run on one thread; {@link ConcurrentCredentialBenchmark}
+ * runs the same benchmarks on several.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class CredentialBenchmark {
+
+    /**
+     * The instance name of the credential looked up and connected.
+     */
+    private static final String INSTANCE = "ConnectionCredentialBenchmark";
+
+    /**
+     * The in-memory Derby database connected.
+     */
+    private static final String DATABASE = "jdbc:derby:memory:" + INSTANCE;
+
+    /**
+     * The number of credentials in the store.
+     */
+    @Param({"10", "1000", "100000"})
+    private int size;
+
+    /**
+     * The format of the credentials file.
+     */
+    @Param({"JSON", "BINARY"})
+    private CredentialStore.Format format;
+
+    /**
+     * The home directory holding the credentials file.
+     */
+    private Path home;
+
+    /**
+     * The home directory before the trial.
+     */
+    private String userHome;
+
+    /**
+     * The credential looked up and connected.
+     */
+    private Credential credential;
+
+    /**
+     * The password encrypted by {@link #setPassword()}.
+     */
+    private final char[] password = "benchmark-password".toCharArray();
+
+    /**
+     * Writes the credentials file and creates the database
+     *
+     * @throws IOException  for any IO error
+     * @throws SQLException when the database can not be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        userHome = System.getProperty("user.home");
+        home = Files.createTempDirectory(INSTANCE);
+        System.setProperty("user.home", home.toString());
+        System.setProperty("derby.stream.error.file", home.resolve("derby.log").toString());
+        DriverManager.getConnection(DATABASE + ";create=true").close();
+
+        Credentials credentials = new Credentials();
+        credential = new Credential(INSTANCE, "org.apache.derby.jdbc.EmbeddedDriver", DATABASE, password.clone());
+        credentials.put(credential.getIdentifier(), credential);
+        for (int i = 1; i < size; i++) {
+            Credential other = new Credential(INSTANCE + i, "org.apache.derby.jdbc.EmbeddedDriver",
+                    "jdbc:derby:memory:" + INSTANCE + i, ("password" + i).toCharArray());
+            credentials.put(other.getIdentifier(), other);
+        }
+        Files.createDirectories(home.resolve(".ConnectionCredential"));
+        CredentialStore.getDefault().write(credentials, format);
+    }
+
+    /**
+     * Restores the home directory and removes the credentials file
+     *
+     * @throws IOException for any IO error
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ConnectionPool.closeAll();
+        System.setProperty("user.home", userHome);
+        try (Stream<Path> paths = Files.walk(home)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Reads and parses the whole credentials file and its journal
+     *
+     * @return the credentials
+     * @throws IOException for any IO error
+     */
+    @Benchmark
+    public Credentials getCredentials() throws IOException {
+        return OperatingSystem.getCredentials();
+    }
+
+    /**
+     * Reads the whole credentials file and its journal one credential at a time, as the list command does
+     *
+     * @return the number of credentials
+     * @throws IOException for any IO error
+     */
+    @Benchmark
+    public long scan() throws IOException {
+        long[] count = {0};
+        CredentialStore.getDefault().scan(credential -> true, credential -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * Gets every credential from the snapshot of the store, which reads the file only when it has changed
+     *
+     * @return the credentials
+     * @throws IOException for any IO error
+     */
+    @Benchmark
+    public Credentials getSnapshot() throws IOException {
+        return CredentialStore.getDefault().getSnapshot();
+    }
+
+    /**
+     * Looks up one credential through the store
+     *
+     * @return the credential
+     * @throws IOException for any IO error
+     */
+    @Benchmark
+    public Credential lookup() throws IOException {
+        return CredentialStore.getDefault().lookup(INSTANCE, OperatingSystem.getUser());
+    }
+
+    /**
+     * Provides the secret key
+     *
+     * @return the key
+     */
+    @Benchmark
+    public SecretKeySpec getKey() {
+        return OperatingSystem.getKey();
+    }
+
+    /**
+     * Decrypts the password
+     *
+     * @return the password
+     */
+    @Benchmark
+    public String getCred() {
+        return credential.getCred();
+    }
+
+    /**
+     * Encrypts a password
+     *
+     * @return the credential
+     */
+    @Benchmark
+    public Credential setPassword() {
+        Credential result = new Credential(INSTANCE, null, null, OperatingSystem.getUser(), null, true);
+        result.setPassword(password.clone());
+        return result;
+    }
+
+    /**
+     * Looks up the credential, decrypts its password, connects and closes the connection
+     *
+     * @return the connection, closed
+     * @throws IOException  for any IO error
+     * @throws SQLException when the connection can not be closed
+     */
+    @Benchmark
+    public Connection getConnection() throws IOException, SQLException {
+        Connection connection = OperatingSystem.getConnection(INSTANCE, new Properties());
+        connection.close();
+        return connection;
+    }
+}
@@ -15,4 +15,9 @@ ECHO OFF
 :: This software makes use of other software, their version and
 :: licensing for use are packaged directly with each.
 ::
-java -jar ConnectionCredential-1.0.jar %*
\ No newline at end of file
+:: The AppCDS archive, built by mvn -Pappcds package, shortens start-up; it is used when present.
+IF EXIST ConnectionCredential.jsa (
+  java -XX:SharedArchiveFile=ConnectionCredential.jsa -jar ${project.build.finalName}.jar %*
+) ELSE (
+  java -jar ${project.build.finalName}.jar %*
+)
\ No newline at end of file
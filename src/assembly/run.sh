@@ -16,4 +16,9 @@
 # This software makes use of other software, their version and
 # licensing for use are packaged directly with each.
 
-java -jar ConnectionCredential-1.0.jar $@
\ No newline at end of file
+# The AppCDS archive, built by mvn -Pappcds package, shortens start-up; it is used when present.
+if [ -f ConnectionCredential.jsa ]; then
+  java -XX:SharedArchiveFile=ConnectionCredential.jsa -jar ${project.build.finalName}.jar $@
+else
+  java -jar ${project.build.finalName}.jar $@
+fi
@@ -0,0 +1,49 @@
+package net.wf0b.code;
+
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs the credential agent (see {@link CredentialAgent}) until stopped.
+ *
+ * <code>
+ * <br> Usage: ConnectionCredential agent [-hV] [-S=&lt;socket&gt;]
+ * <br> Serves the credentials over a Unix domain socket until stopped.
+ * <br> -S, --socket=&lt;socket&gt;      the socket, by default .agent.sock in the application home
+ * </code>
+ */
+@CommandLine.Command(name = "agent", mixinStandardHelpOptions = true, version = "ConnectionCredential-0.1-Snapshot",
+        description = "Serves the credentials over a Unix domain socket until stopped.")
+public class AgentCommand implements Callable<Integer> {
+
+    /**
+     * The socket
+     */
+    @CommandLine.Option(names = {"-S", "--socket"}, description = "the socket, by default .agent.sock in the application home")
+    private String socket;
+
+    /**
+     * Serves until stopped
+     *
+     * @return 0
+     * @throws Exception for an error thrown
+     */
+    public Integer call() throws Exception {
+        Path path = socket == null ? CredentialAgent.getSocket() : Paths.get(socket);
+        CredentialAgent agent = new CredentialAgent(path, CredentialStore.getDefault());
+        agent.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                agent.close();
+            } catch (Exception e) {
+                e.printStackTrace(System.err);
+            }
+        }));
+        System.out.println("serving " + path);
+        agent.await();
+        return 0;
+    }
+}
@@ -0,0 +1,323 @@
+package net.wf0b.code;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A compact, indexed, binary form of the credentials file, read through a memory mapping.
+ * <p>The file consists of a header, an index and the records:</p>
+ * <ul>
+ * <li>header - the magic bytes <code>CCB1</code> and the number of records</li>
+ * <li>index - for each record, the hash of its instance name and user, its offset and its length, sorted by hash</li>
+ * <li>records - the instance name, connection string, driver name, user and encrypted password, each as a length
+ * followed by UTF-8 bytes (a length of -1 is null), and the active indicator; a credential with further connection
+ * strings, a primary or a statement cache is followed by the number of further connection strings, each of them,
+ * the instance name of its primary and the size of its statement cache</li>
+ * </ul>
+ * <p>A lookup searches the index and decodes only the matching record, so it touches a few pages of the file no
+ * matter how many credentials are stored. The hash is the same as {@link Credential#getIdentifier()}; records with
+ * equal hashes are told apart by their instance name and user.</p>
+ */
+public class BinaryCredentialFile {
+
+    /**
+     * The magic bytes identifying the binary form.
+     */
+    private static final byte[] MAGIC = {'C', 'C', 'B', '1'};
+
+    /**
+     * The size of the header: the magic bytes and the number of records.
+     */
+    private static final int HEADER = MAGIC.length + Integer.BYTES;
+
+    /**
+     * The size of an index entry: hash, offset and length.
+     */
+    private static final int ENTRY = 3 * Integer.BYTES;
+
+    /**
+     * The mapped file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The number of records.
+     */
+    private final int count;
+
+    /**
+     * Instantiates a reader over a mapped file
+     *
+     * @param buffer the mapped file
+     */
+    private BinaryCredentialFile(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.count = buffer.getInt(MAGIC.length);
+    }
+
+    /**
+     * Maps a binary credentials file, read-only
+     *
+     * @param path the path to the file
+     * @return the reader
+     * @throws IOException when the file can not be read or is not in the binary form
+     */
+    public static BinaryCredentialFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (!hasMagic(buffer)) throw new IOException(path + " is not a binary credentials file");
+            return new BinaryCredentialFile(buffer);
+        }
+    }
+
+    /**
+     * Determines if a file is in the binary form, by its magic bytes
+     *
+     * @param path the path to the file
+     * @return an indicator denoting the binary form
+     * @throws IOException for any IO error
+     */
+    public static boolean isBinary(Path path) throws IOException {
+        if (!Files.exists(path)) return false;
+        try (InputStream in = Files.newInputStream(path)) {
+            return Arrays.equals(MAGIC, in.readNBytes(MAGIC.length));
+        }
+    }
+
+    /**
+     * Writes credentials in the binary form
+     *
+     * @param credentials the credentials
+     * @param path        the path to the file
+     * @throws IOException for any IO error
+     */
+    public static void write(Credentials credentials, Path path) throws IOException {
+        write(credentials.values(), path);
+    }
+
+    /**
+     * Writes credentials in the binary form; unlike {@link Credentials}, credentials whose identifiers collide are
+     * all kept
+     *
+     * @param credentials the credentials
+     * @param path        the path to the file
+     * @throws IOException for any IO error
+     */
+    public static void write(Collection<Credential> credentials, Path path) throws IOException {
+        List<Credential> sorted = new ArrayList<>(credentials);
+        sorted.sort(Comparator.comparingInt(Credential::getIdentifier));
+        byte[][] records = new byte[sorted.size()][];
+        int size = HEADER + ENTRY * sorted.size();
+        for (int i = 0; i < records.length; i++) {
+            records[i] = encode(sorted.get(i));
+            size += records[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MAGIC).putInt(records.length);
+        int offset = HEADER + ENTRY * records.length;
+        for (int i = 0; i < records.length; i++) {
+            buffer.putInt(sorted.get(i).getIdentifier()).putInt(offset).putInt(records[i].length);
+            offset += records[i].length;
+        }
+        for (byte[] record : records) buffer.put(record);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    /**
+     * Gets the number of records
+     *
+     * @return the number of records
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Looks up the credential for an instance name and user, decoding only its record
+     *
+     * @param instanceName the instance name
+     * @param user         the user name the credential was stored under
+     * @return the credential, null when not found
+     */
+    public Credential get(String instanceName, String user) {
+        int hash = CredentialKey.hash(instanceName, user);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int found = hashAt(middle);
+            if (found < hash) low = middle + 1;
+            else if (found > hash) high = middle - 1;
+            else {
+                int first = middle;
+                while (first > 0 && hashAt(first - 1) == hash) first--;
+                for (int i = first; i < count && hashAt(i) == hash; i++) {
+                    Credential credential = decode(i);
+                    if (instanceName.equals(credential.getInstanceName()) && user.equals(credential.getAccount()))
+                        return credential;
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes every record, keeping records whose identifiers collide
+     *
+     * @return the credentials
+     */
+    public List<Credential> list() {
+        List<Credential> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) result.add(decode(i));
+        return result;
+    }
+
+    /**
+     * Decodes the records one at a time, in the order of the index, passing each to an action
+     *
+     * @param action the action
+     * @throws IOException when the action fails
+     */
+    public void forEach(CredentialStore.Visitor action) throws IOException {
+        for (int i = 0; i < count; i++) action.accept(decode(i));
+    }
+
+    /**
+     * Decodes every record
+     *
+     * @return the credentials
+     */
+    public Credentials getAll() {
+        Credentials result = new Credentials();
+        for (int i = 0; i < count; i++) result.put(hashAt(i), decode(i));
+        return result;
+    }
+
+    /**
+     * Gets the hash of an index entry
+     *
+     * @param index the index entry
+     * @return the hash
+     */
+    private int hashAt(int index) {
+        return buffer.getInt(HEADER + index * ENTRY);
+    }
+
+    /**
+     * Decodes the record of an index entry
+     *
+     * @param index the index entry
+     * @return the credential
+     */
+    private Credential decode(int index) {
+        int offset = buffer.getInt(HEADER + index * ENTRY + Integer.BYTES);
+        int end = offset + buffer.getInt(HEADER + index * ENTRY + 2 * Integer.BYTES);
+        int[] position = {offset};
+        String instanceName = getString(position);
+        String connectionString = getString(position);
+        String driverName = getString(position);
+        String user = getString(position);
+        String password = getString(position);
+        boolean active = buffer.get(position[0]++) != 0;
+        Credential result = new Credential(instanceName, driverName, connectionString, user, password, active);
+        if (position[0] < end) {
+            List<String> endpoints = new ArrayList<>();
+            int number = buffer.getInt(position[0]);
+            position[0] += Integer.BYTES;
+            for (int i = 0; i < number; i++) endpoints.add(getString(position));
+            result.setEndpoints(endpoints);
+            if (position[0] < end) result.setReplicaOf(getString(position));
+            if (position[0] < end) result.setStatementCacheSize(buffer.getInt(position[0]));
+        }
+        return result;
+    }
+
+    /**
+     * Gets a string at a position, advancing the position past it
+     *
+     * @param position the position
+     * @return the string, or null
+     */
+    private String getString(int[] position) {
+        int length = buffer.getInt(position[0]);
+        position[0] += Integer.BYTES;
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(position[0], bytes);
+        position[0] += length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a credential as a record
+     *
+     * @param credential the credential
+     * @return the record
+     */
+    private static byte[] encode(Credential credential) {
+        byte[][] fields = {bytes(credential.getInstanceName()), bytes(credential.getConnectionString()),
+                bytes(credential.getDriverName()), bytes(credential.getAccount()), bytes(credential.getEncrypted())};
+        List<String> endpoints = credential.getEndpoints();
+        byte[][] further = new byte[endpoints.size() - 1][];
+        for (int i = 0; i < further.length; i++) further[i] = bytes(endpoints.get(i + 1));
+        byte[] replicaOf = bytes(credential.getReplicaOf());
+        boolean extended = further.length > 0 || replicaOf != null || credential.getStatementCacheSize() > 0;
+        int size = 1 + (extended ? 3 * Integer.BYTES + (replicaOf == null ? 0 : replicaOf.length) : 0);
+        for (byte[] field : fields) size += Integer.BYTES + (field == null ? 0 : field.length);
+        for (byte[] field : further) size += Integer.BYTES + field.length;
+        ByteBuffer record = ByteBuffer.allocate(size);
+        for (byte[] field : fields) {
+            if (field == null) record.putInt(-1);
+            else record.putInt(field.length).put(field);
+        }
+        record.put((byte) (credential.isActive() ? 1 : 0));
+        if (extended) {
+            record.putInt(further.length);
+            for (byte[] field : further) record.putInt(field.length).put(field);
+            if (replicaOf == null) record.putInt(-1);
+            else record.putInt(replicaOf.length).put(replicaOf);
+            record.putInt(credential.getStatementCacheSize());
+        }
+        return record.array();
+    }
+
+    /**
+     * Gets the UTF-8 bytes of a string
+     *
+     * @param value the string, or null
+     * @return the bytes, or null
+     */
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Determines if a buffer begins with the magic bytes
+     *
+     * @param buffer the buffer
+     * @return an indicator denoting the binary form
+     */
+    private static boolean hasMagic(ByteBuffer buffer) {
+        if (buffer.limit() < HEADER) return false;
+        for (int i = 0; i < MAGIC.length; i++) if (buffer.get(i) != MAGIC[i]) return false;
+        return true;
+    }
+}
@@ -0,0 +1,173 @@
+package net.wf0b.code;
+
+import picocli.CommandLine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Adds, changes and deletes many credentials at once, from a file or the standard input.
+ * <p>Each record (see {@link BulkRecord}) is read as a line, and its password is encrypted at once on another core
+ * while the next lines are read. Once every record is read, the changes are decided as the ConnectionCredential
+ * command decides them, in the order of the records, and the store is written once.</p>
+ *
+ * <code>
+ * <br> Usage: ConnectionCredential bulk [-hV] [-f=&lt;format&gt;] [&lt;file&gt;]
+ * <br> Adds, changes and deletes credentials from CSV or JSON lines.
+ * <br> [&lt;file&gt;]                 the file of records, - or none for the standard input
+ * <br> -f, --format=&lt;format&gt;      the form of the records: CSV or JSON
+ * </code>
+ */
+@CommandLine.Command(name = "bulk", mixinStandardHelpOptions = true, version = "ConnectionCredential-0.1-Snapshot",
+        description = "Adds, changes and deletes credentials from CSV or JSON lines.")
+public class BulkCommand implements Callable<Integer> {
+
+    /**
+     * The file of records
+     */
+    @CommandLine.Parameters(arity = "0..1", description = "the file of records, - or none for the standard input")
+    private String file;
+
+    /**
+     * The form of the records
+     */
+    @CommandLine.Option(names = {"-f", "--format"}, description = "the form of the records: CSV or JSON")
+    private BulkRecord.Format format;
+
+    /**
+     * A record read, with its credential being built.
+     *
+     * @param line       the line number
+     * @param record     the record
+     * @param credential the credential, built with its password encrypted; null for a delete
+     */
+    private record Pending(int line, BulkRecord record, CompletableFuture<Credential> credential) {
+    }
+
+    /**
+     * Reads the records and changes the store
+     *
+     * @return 0 when every record is applied, 1 when any is not
+     * @throws Exception for an error thrown
+     */
+    public Integer call() throws Exception {
+        BulkRecord.Format form = format != null ? format
+                : file != null && (file.endsWith(".json") || file.endsWith(".jsonl")) ? BulkRecord.Format.JSON
+                : BulkRecord.Format.CSV;
+
+        List<Pending> pending = new ArrayList<>();
+        int errors = 0;
+        try (BufferedReader reader = file == null || file.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(file))) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                int first = number;
+                // a quoted CSV field may hold line breaks, so the record goes on in the lines after
+                String next;
+                while (form == BulkRecord.Format.CSV && BulkRecord.isOpen(line) && (next = reader.readLine()) != null) {
+                    number++;
+                    line = line + "\n" + next;
+                }
+                BulkRecord record;
+                try {
+                    record = BulkRecord.parse(line, form);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("line " + first + ": " + e.getMessage() + ", not applied");
+                    errors++;
+                    continue;
+                }
+                if (record == null) continue;
+                pending.add(new Pending(first, record, record.action.equals("delete") ? null
+                        : CompletableFuture.supplyAsync(() -> build(record))));
+            }
+        }
+
+        int[] counts = new int[4];
+        List<String> messages = new ArrayList<>();
+        CredentialStore store = CredentialStore.getDefault();
+        store.rewrite(credentials -> changes(new CredentialRegistry(credentials), pending, counts, messages));
+        for (String message : messages) System.err.println(message);
+        System.out.println(counts[0] + " added, " + counts[1] + " updated, " + counts[2] + " deleted, "
+                + (counts[3] + errors) + " not applied");
+        return counts[3] + errors == 0 ? 0 : 1;
+    }
+
+    /**
+     * Builds the credential of a record, encrypting its password; the record is the whole credential, as for the
+     * ConnectionCredential command
+     *
+     * @param record the record
+     * @return the credential
+     */
+    private static Credential build(BulkRecord record) {
+        char[] password = record.password == null ? null : record.password.toCharArray();
+        Credential result = record.role == null ? new Credential(record.instance, record.driver, record.string, password)
+                : new Credential(record.instance, record.driver, record.string, password, record.role);
+        result.setEndpoints(record.endpoints);
+        result.setReplicaOf(record.replicaOf);
+        result.setStatementCacheSize(record.statementCacheSize == null ? 0 : record.statementCacheSize);
+        return result;
+    }
+
+    /**
+     * Decides the changes, in the order of the records
+     *
+     * @param credentials the credentials as read, changed as the records are applied
+     * @param pending     the records
+     * @param counts      the counts of credentials added, updated, deleted and records not applied
+     * @param messages    the messages reporting records not applied
+     * @return the credentials added or updated, and as inactive the credentials removed
+     */
+    private static List<Credential> changes(CredentialRegistry credentials, List<Pending> pending, int[] counts,
+                                            List<String> messages) {
+        List<Credential> result = new ArrayList<>();
+        Arrays.fill(counts, 0);
+        messages.clear();
+        for (Pending item : pending) {
+            BulkRecord record = item.record();
+            String role = record.role == null ? OperatingSystem.getUser() : record.role;
+            boolean exists = credentials.containsKey(record.instance, role);
+            if (record.action.equals("delete")) {
+                if (exists) {
+                    Credential credential = credentials.remove(record.instance, role);
+                    credential.setInactive();
+                    result.add(credential);
+                    counts[2]++;
+                } else {
+                    messages.add("line " + item.line() + ": credentials for " + record.instance + " and " + role
+                            + " not found, not deleted");
+                    counts[3]++;
+                }
+                continue;
+            }
+            if (record.driver == null || record.string == null) {
+                messages.add("line " + item.line() + ": missing information, not applied");
+                counts[3]++;
+            } else if (record.action.equals("change") && !exists) {
+                messages.add("line " + item.line() + ": credential not found, can not be changed");
+                counts[3]++;
+            } else if (record.action.equals("add") && exists) {
+                messages.add("line " + item.line() + ": credential already exists, not added");
+                counts[3]++;
+            } else {
+                Credential credential = item.credential().join();
+                credentials.put(credential);
+                result.add(credential);
+                counts[exists ? 1 : 0]++;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,262 @@
+package net.wf0b.code;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One record of a bulk import or export: an action on a credential, as a line of CSV or of JSON.
+ * <p>The CSV columns, which may be named in a first header line, are:</p>
+ * <pre>
+ * action,instance,role,driver,string,password,endpoints,replicaOf,statementCacheSize
+ * </pre>
+ * <p>The JSON line of the same record is:</p>
+ * <pre>
+ * {"action":"add","instance":"...","role":"...","driver":"...","string":"...","password":"...",
+ *  "endpoints":["..."],"replicaOf":"...","statementCacheSize":0}
+ * </pre>
+ * <p>The further connection strings are separated by spaces in CSV. The last three columns may be left out, as in
+ * records written before they were added.</p>
+ * <p>The action is <code>add</code>, <code>change</code> or <code>delete</code>; an empty role is the current
+ * user. A quoted CSV field may hold line breaks, and then the record goes on in the lines after.</p>
+ */
+class BulkRecord {
+
+    /**
+     * The CSV header.
+     */
+    static final String HEADER = "action,instance,role,driver,string,password,endpoints,replicaOf,statementCacheSize";
+
+    /**
+     * The serializer of JSON lines.
+     */
+    private static final Gson GSON = new Gson();
+
+    /**
+     * The action: add, change or delete.
+     */
+    String action;
+
+    /**
+     * The instance name.
+     */
+    String instance;
+
+    /**
+     * The role, null for the current user.
+     */
+    String role;
+
+    /**
+     * The driver name.
+     */
+    String driver;
+
+    /**
+     * The connection string.
+     */
+    String string;
+
+    /**
+     * The password, in the clear.
+     */
+    String password;
+
+    /**
+     * The further connection strings, tried when the connection string fails; null for none.
+     */
+    List<String> endpoints;
+
+    /**
+     * The instance name of the primary this is a replica of; null for a primary.
+     */
+    String replicaOf;
+
+    /**
+     * The prepared statements cached for each physical connection; null for none.
+     */
+    Integer statementCacheSize;
+
+    /**
+     * The form of the records.
+     */
+    enum Format {
+        /**
+         * Comma separated values
+         */
+        CSV,
+        /**
+         * One JSON object per line
+         */
+        JSON
+    }
+
+    /**
+     * Parses a line
+     *
+     * @param line   the line
+     * @param format the form of the line
+     * @return the record, null for a blank line or the CSV header
+     * @throws IllegalArgumentException when the line can not be parsed
+     */
+    static BulkRecord parse(String line, Format format) {
+        if (line.isBlank()) return null;
+        BulkRecord result;
+        if (format == Format.JSON) {
+            try {
+                result = GSON.fromJson(line, BulkRecord.class);
+            } catch (JsonParseException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        } else {
+            List<String> fields = splitCsv(line);
+            if (fields.size() > 0 && fields.get(0).equals("action")) return null;
+            result = new BulkRecord();
+            result.action = field(fields, 0);
+            result.instance = field(fields, 1);
+            result.role = field(fields, 2);
+            result.driver = field(fields, 3);
+            result.string = field(fields, 4);
+            result.password = field(fields, 5);
+            String endpoints = field(fields, 6);
+            if (endpoints != null && !endpoints.isBlank()) result.endpoints = List.of(endpoints.trim().split("\\s+"));
+            result.replicaOf = field(fields, 7);
+            String size = field(fields, 8);
+            try {
+                if (size != null) result.statementCacheSize = Integer.valueOf(size.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad statement cache size " + size);
+            }
+        }
+        if (result.role != null && result.role.isEmpty()) result.role = null;
+        if (result.action == null) result.action = "add";
+        if (result.instance == null || result.instance.isEmpty())
+            throw new IllegalArgumentException("missing instance name");
+        if (!result.action.equals("add") && !result.action.equals("change") && !result.action.equals("delete"))
+            throw new IllegalArgumentException("unknown action " + result.action);
+        return result;
+    }
+
+    /**
+     * Makes the record of a credential
+     *
+     * @param credential the credential
+     * @param password   the password in the clear, or null to leave it out
+     * @return the record
+     */
+    static BulkRecord of(Credential credential, String password) {
+        BulkRecord result = new BulkRecord();
+        result.action = "add";
+        result.instance = credential.getInstanceName();
+        result.role = credential.getAccount();
+        result.driver = credential.getDriverName();
+        result.string = credential.getConnectionString();
+        result.password = password;
+        List<String> endpoints = credential.getEndpoints();
+        if (endpoints.size() > 1) result.endpoints = endpoints.subList(1, endpoints.size());
+        result.replicaOf = credential.getReplicaOf();
+        if (credential.getStatementCacheSize() > 0) result.statementCacheSize = credential.getStatementCacheSize();
+        return result;
+    }
+
+    /**
+     * Formats the record as a line, without the line separator
+     *
+     * @param format the form of the line
+     * @return the line
+     */
+    String format(Format format) {
+        if (format == Format.JSON) return GSON.toJson(this);
+        return String.join(",", quote(action), quote(instance), quote(role), quote(driver), quote(string),
+                quote(password), quote(endpoints == null ? null : String.join(" ", endpoints)), quote(replicaOf),
+                statementCacheSize == null ? "" : statementCacheSize.toString());
+    }
+
+    /**
+     * Gets a CSV field
+     *
+     * @param fields the fields
+     * @param index  the index of the field
+     * @return the field, null when missing or empty
+     */
+    private static String field(List<String> fields, int index) {
+        if (index >= fields.size()) return null;
+        String result = fields.get(index);
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * Splits a CSV line into fields; a field may be quoted, with quotes doubled within it, and a quote within an
+     * unquoted field is taken as is
+     *
+     * @param line the line
+     * @return the fields
+     */
+    static List<String> splitCsv(String line) {
+        List<String> result = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') field.append(c);
+                else if (i + 1 < line.length() && line.charAt(i + 1) == '"') field.append(line.charAt(++i));
+                else quoted = false;
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                result.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quote");
+        result.add(field.toString());
+        return result;
+    }
+
+    /**
+     * Tells whether CSV text ends within a quoted field, so that the record goes on in the next line
+     *
+     * @param text the text of the record read so far
+     * @return true when a quoted field is not terminated
+     */
+    static boolean isOpen(String text) {
+        boolean quoted = false;
+        boolean empty = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    empty = false;
+                } else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    empty = false;
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && empty) {
+                quoted = true;
+            } else {
+                empty = c == ',';
+            }
+        }
+        return quoted;
+    }
+
+    /**
+     * Quotes a CSV field when needed
+     *
+     * @param value the field, may be null
+     * @return the quoted field
+     */
+    private static String quote(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -14,6 +14,9 @@ package net.wf0b.code;
 
 import picocli.CommandLine;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 /**
@@ -29,28 +32,39 @@ import java.util.concurrent.Callable;
  * interacting with a particular database.</p>
  *
  * <code>
- * <br> Usage: ConnectionCredential [-chVx] [-d[=&lt;driverName&gt;]] [-p[=&lt;password&gt;]] [-r [=&lt;role&gt;]] [-s[=&lt;connectionString&gt;]] -i=&lt;instanceName&gt;
+ * <br> Usage: ConnectionCredential [-chVx] [-C=&lt;statementCacheSize&gt;] [-d[=&lt;driverName&gt;]] [-e=&lt;endpoint&gt;]... [-o=&lt;replicaOf&gt;] [-p[=&lt;password&gt;]] [-r [=&lt;role&gt;]] [-s[=&lt;connectionString&gt;]] -i=&lt;instanceName&gt; [COMMAND]
  * <br> Maintains jdbc database connections for the user.
+ * <br> -C, --statement-cache=&lt;statementCacheSize&gt;
+ * <br>                                   the prepared statements cached for each connection
  * <br> -c, --change                      change existing entry
  * <br> -d, --driver[=&lt;driverName&gt;]       the jdbc driver name
+ * <br> -e, --endpoint=&lt;endpoint&gt;         a further connection string, tried when the connection string fails
  * <br> -h, --help                        Show this help message and exit.
  * <br> -i, --instance=&lt;instanceName&gt;     the instance (or application) name
+ * <br> -o, --replica-of=&lt;replicaOf&gt;     the instance name of the primary this is a replica of
  * <br> -p, --password[=&lt;password&gt;]       Passphrase
  * <br> -r, --role[=&lt;role&gt;]               the role a user has
  * <br> -s, --string[=&lt;connectionString&gt;] the connection string
  * <br> -V, --version                     Print version information and exit.
  * <br> -x, --delete                      delete existing entry
+ * <br> Commands:
+ * <br> bulk    Adds, changes and deletes credentials from CSV or JSON lines.
+ * <br> export  Writes the credentials as CSV or JSON lines.
+ * <br> agent   Serves the credentials over a Unix domain socket until stopped.
+ * <br> list    Lists the credentials, without their passwords.
+ * <br> doctor  Probes the connectivity of the credentials, slowest first.
  * </code>
  */
-// TODO add a listing function
 @CommandLine.Command(name = "ConnectionCredential", mixinStandardHelpOptions = true, version = "ConnectionCredential-0.1-Snapshot",
-        description = "Maintains jdbc database connections for the user.")
+        description = "Maintains jdbc database connections for the user.",
+        subcommands = {BulkCommand.class, ExportCommand.class, AgentCommand.class, ListCommand.class,
+                DoctorCommand.class})
 public class ConnectionCredential implements Callable<Integer> {
 
     /**
      * The instance (or application) name
      */
-    @CommandLine.Option(names = {"-i", "--instance"}, description = "the instance (or application) name", required = true)
+    @CommandLine.Option(names = {"-i", "--instance"}, description = "the instance (or application) name")
     private String instanceName;
 
     /**
@@ -65,6 +79,24 @@ public class ConnectionCredential implements Callable<Integer> {
     @CommandLine.Option(names = {"-s", "--string"}, arity = "0..1", description = "the connection string")
     private String connectionString;
 
+    /**
+     * the further connection strings, tried when the connection string fails
+     */
+    @CommandLine.Option(names = {"-e", "--endpoint"}, description = "a further connection string, tried when the connection string fails")
+    private List<String> endpoints;
+
+    /**
+     * the instance name of the primary this is a replica of
+     */
+    @CommandLine.Option(names = {"-o", "--replica-of"}, description = "the instance name of the primary this is a replica of")
+    private String replicaOf;
+
+    /**
+     * the prepared statements cached for each connection
+     */
+    @CommandLine.Option(names = {"-C", "--statement-cache"}, description = "the prepared statements cached for each connection")
+    private int statementCacheSize;
+
     /**
      * The role a user hase
      */
@@ -81,21 +113,41 @@ public class ConnectionCredential implements Callable<Integer> {
      * Denotes whether this is a change
      */
     @CommandLine.Option(names = {"-c", "--change"}, description = "change existing entry")
-    private final boolean isChange = false;
+    private boolean isChange = false;
 
     /**
      * Denotes whether this is deleted
      */
     @CommandLine.Option(names = {"-x", "--delete"}, description = "delete existing entry")
-    private final boolean isDelete = false;
+    private boolean isDelete = false;
 
     /**
-     * Processes the parameters
+     * The message reporting the outcome
+     */
+    private String message;
+
+    /**
+     * Denotes whether the message reports a failure
+     */
+    private boolean failed;
+
+    /**
+     * Processes the parameters, exiting with the status of the command
      *
      * @param args The arguments for ConnectionCredential
      */
     public static void main(String[] args) {
-        int exitCode = new CommandLine(new ConnectionCredential()).execute(args);
+        System.exit(run(args));
+    }
+
+    /**
+     * Processes the parameters
+     *
+     * @param args The arguments for ConnectionCredential
+     * @return the status of the command: 0 when it succeeded, 2 for a usage error, otherwise as the command reports
+     */
+    public static int run(String... args) {
+        return new CommandLine(new ConnectionCredential()).execute(args);
     }
 
     /**
@@ -105,55 +157,89 @@ public class ConnectionCredential implements Callable<Integer> {
      * @throws Exception for an error thrown
      */
     public Integer call() throws Exception {
-        Credentials credentials = OperatingSystem.getCredentials();
+        if (instanceName == null) {
+            System.err.println("Missing required option: '--instance=<instanceName>'");
+            return 2;
+        }
+        CredentialStore store = CredentialStore.getDefault();
+        try {
+            store.update(this::changes);
+        } finally {
+            if (password != null) Arrays.fill(password, ' ');
+        }
+        if (message != null) {
+            if (failed) System.err.println(message);
+            else System.out.println(message);
+        }
+
+        store.awaitCompaction();
+
+        return 0;
+    }
+
+    /**
+     * Decides the changes to the credentials, and the message reporting them
+     *
+     * @param credentials the credentials as read
+     * @return the credentials added or updated, and as inactive the credentials removed
+     */
+    private List<Credential> changes(Credentials credentials) {
+        List<Credential> result = new ArrayList<>();
         Credential credential;
+        message = null;
+        failed = true;
         if (isDelete) {
             if (instanceName != null) {
                 if (role == null) {
                     if (credentials.containsKey(instanceName)) {
-                        credentials.get(instanceName).setInactive();
+                        credential = credentials.get(instanceName);
+                        credential.setInactive();
+                        result.add(credential);
                     } else {
-                        System.err.println("credentials for " + instanceName + " not found, not deleted");
+                        message = "credentials for " + instanceName + " not found, not deleted";
                     }
                 } else {
                     if (credentials.containsKey(instanceName, role)) {
-                        credentials.get(instanceName, role).setInactive();
+                        credential = credentials.get(instanceName, role);
+                        credential.setInactive();
+                        result.add(credential);
                     } else {
-                        System.err.println("credentials for " + instanceName + " and " + role + " not found, not deleted");
+                        message = "credentials for " + instanceName + " and " + role + " not found, not deleted";
                     }
                 }
             }
         } else {
             if (driverName == null || connectionString == null || instanceName == null) {
-                System.err.println("missing information, can not continue");
+                message = "missing information, can not continue";
             } else {
                 if (role == null)
-                    credential = new Credential(instanceName, driverName, connectionString, password);
+                    credential = new Credential(instanceName, driverName, connectionString, password == null ? null : password.clone());
                 else
-                    credential = new Credential(instanceName, driverName, connectionString, password, role);
+                    credential = new Credential(instanceName, driverName, connectionString, password == null ? null : password.clone(), role);
+                credential.setEndpoints(endpoints);
+                credential.setReplicaOf(replicaOf);
+                credential.setStatementCacheSize(statementCacheSize);
 
                 if (isChange) {
                     if (credentials.containsKey(credential.getIdentifier())) {
-                        credentials.put(credential.getIdentifier(), credential);
-                        System.out.println("credential updated");
+                        result.add(credential);
+                        message = "credential updated";
+                        failed = false;
                     } else {
-                        System.err.println("credential not found, can not be changed, will be added");
+                        message = "credential not found, can not be changed, will be added";
                     }
                 } else {
                     if (credentials.containsKey(credential.getIdentifier())) {
-                        System.err.println("credential already exists, not added");
+                        message = "credential already exists, not added";
                     } else {
-                        credentials.put(credential.getIdentifier(), credential);
-                        System.out.println("credential added");
+                        result.add(credential);
+                        message = "credential added";
+                        failed = false;
                     }
                 }
             }
         }
-
-        OperatingSystem.putCredentials(credentials);
-
-        return 0;
+        return result;
     }
 
-
 }
\ No newline at end of file
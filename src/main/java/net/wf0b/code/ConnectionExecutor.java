@@ -0,0 +1,105 @@
+package net.wf0b.code;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The executor of asynchronous connection acquisition.
+ * <p>On a runtime with virtual threads, each acquisition runs on its own virtual thread, so blocking in the
+ * handshake ties up no platform thread; otherwise acquisitions run on a cached pool of daemon threads.</p>
+ * <p>A future may be given a timeout, and may be cancelled. Either way the acquisition is interrupted, and a
+ * connection that is nonetheless acquired afterwards is closed rather than leaked.</p>
+ */
+final class ConnectionExecutor {
+
+    /**
+     * An indicator denoting the executor runs virtual threads.
+     */
+    private static boolean virtual;
+
+    /**
+     * The executor.
+     */
+    private static final ExecutorService EXECUTOR = create();
+
+    /**
+     * Not instantiated
+     */
+    private ConnectionExecutor() {
+    }
+
+    /**
+     * Gets virtual.
+     *
+     * @return value of virtual
+     */
+    static boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Acquires a connection asynchronously
+     *
+     * @param acquisition the acquisition
+     * @param timeout     the time allowed, null or zero for no limit
+     * @return the future connection; it completes with a {@link java.util.concurrent.TimeoutException} when the time
+     * allowed passes
+     */
+    static CompletableFuture<Connection> submit(Callable<Connection> acquisition, Duration timeout) {
+        CompletableFuture<Connection> result = new CompletableFuture<>();
+        Future<?> running = EXECUTOR.submit(() -> {
+            try {
+                Connection connection = acquisition.call();
+                if (connection == null) result.completeExceptionally(new SQLException("no connection acquired"));
+                else if (!result.complete(connection)) close(connection);
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((connection, failure) -> {
+            if (failure != null) running.cancel(true);
+        });
+        if (timeout != null && !timeout.isZero()) result.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    /**
+     * Closes a connection nobody is waiting for
+     *
+     * @param connection the connection
+     */
+    private static void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    /**
+     * Creates the executor, of virtual threads when the runtime has them
+     *
+     * @return the executor
+     */
+    private static ExecutorService create() {
+        try {
+            ExecutorService result = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            virtual = true;
+            return result;
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "ConnectionCredential-connect");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
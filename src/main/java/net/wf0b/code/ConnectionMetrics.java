@@ -0,0 +1,432 @@
+package net.wf0b.code;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Counts, failures and latency histograms of the stages of getting a connection, for each instance name and role.
+ * <p>The stages are reading the store, decrypting the password, finding the driver and connecting to the database.
+ * Each instance name and role is published as a platform MBean (see {@link ConnectionMetricsMXBean}) the first time
+ * it connects; a lookup of no credential starts none. Recording adds to striped counters, so threads do not
+ * contend.</p>
+ * <p>Metrics are off by default, when a stage costs a single volatile read; they are enabled by the system property
+ * <code>ConnectionCredential.metrics=true</code>, or {@link #setEnabled(boolean)}.</p>
+ * <p>Usage:</p>
+ * <pre>
+ * long start = ConnectionMetrics.start();
+ * ... the stage ...
+ * ConnectionMetrics.record(instanceName, role, ConnectionMetrics.Stage.CONNECT, start, succeeded);
+ * </pre>
+ */
+public class ConnectionMetrics implements ConnectionMetricsMXBean {
+
+    /**
+     * The stages of getting a connection.
+     */
+    public enum Stage {
+        /**
+         * Reading the credential from the store
+         */
+        STORE,
+        /**
+         * Decrypting the password
+         */
+        DECRYPT,
+        /**
+         * Finding the driver for the connection string
+         */
+        DRIVER,
+        /**
+         * Connecting to the database
+         */
+        CONNECT
+    }
+
+    /**
+     * The number of histogram buckets, one for each power of two nanoseconds.
+     */
+    private static final int BUCKETS = Long.SIZE;
+
+    /**
+     * The metrics, by instance name and then role.
+     */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, ConnectionMetrics>> METRICS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * An indicator denoting metrics are recorded.
+     */
+    private static volatile boolean enabled =
+            Boolean.getBoolean("ConnectionCredential.metrics");
+
+    /**
+     * The instance name.
+     */
+    private final String instanceName;
+
+    /**
+     * The role.
+     */
+    private final String role;
+
+    /**
+     * The recorders, by stage.
+     */
+    private final EnumMap<Stage, Recorder> recorders = new EnumMap<>(Stage.class);
+
+    /**
+     * The name the MBean is registered under, null when not registered.
+     */
+    private ObjectName objectName;
+
+    /**
+     * The counts and histogram of one stage.
+     */
+    private static final class Recorder {
+
+        /**
+         * The number of times the stage ran.
+         */
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * The number of times the stage failed.
+         */
+        private final LongAdder failures = new LongAdder();
+
+        /**
+         * The total latency, in nanoseconds.
+         */
+        private final LongAdder nanos = new LongAdder();
+
+        /**
+         * The latency histogram.
+         */
+        private final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+        /**
+         * Instantiates an empty recorder
+         */
+        Recorder() {
+            for (int i = 0; i < BUCKETS; i++) histogram[i] = new LongAdder();
+        }
+
+        /**
+         * Records one run of the stage
+         *
+         * @param elapsed the latency, in nanoseconds
+         * @param success an indicator denoting the stage succeeded
+         */
+        void record(long elapsed, boolean success) {
+            count.increment();
+            if (!success) failures.increment();
+            nanos.add(elapsed);
+            histogram[bucket(elapsed)].increment();
+        }
+
+        /**
+         * Takes a snapshot
+         *
+         * @return the snapshot
+         */
+        StageSnapshot snapshot() {
+            long[] buckets = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) buckets[i] = histogram[i].sum();
+            return new StageSnapshot(count.sum(), failures.sum(), nanos.sum(), buckets);
+        }
+
+        /**
+         * Clears the counts and histogram
+         */
+        void reset() {
+            count.reset();
+            failures.reset();
+            nanos.reset();
+            for (LongAdder bucket : histogram) bucket.reset();
+        }
+    }
+
+    /**
+     * The counts and histogram of one stage at a point in time.
+     *
+     * @param count      the number of times the stage ran
+     * @param failures   the number of times the stage failed
+     * @param totalNanos the total latency, in nanoseconds
+     * @param histogram  the latency histogram; bucket <code>i</code> counts latencies from 2<sup>i</sup> to
+     *                   2<sup>i+1</sup>-1 nanoseconds
+     */
+    public record StageSnapshot(long count, long failures, long totalNanos, long[] histogram) {
+
+        /**
+         * Gets the mean latency
+         *
+         * @return the mean latency in nanoseconds, 0 when the stage never ran
+         */
+        public long meanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        /**
+         * Gets the upper bound of a percentile of the latency
+         *
+         * @param percentile the percentile, from 0 to 100
+         * @return the upper bound of the bucket holding the percentile in nanoseconds, 0 when the stage never ran
+         */
+        public long percentileNanos(double percentile) {
+            long total = 0;
+            for (long bucket : histogram) total += bucket;
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank && seen > 0) return i == BUCKETS - 1 ? Long.MAX_VALUE : (2L << i) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * The metrics of an instance name and role at a point in time.
+     *
+     * @param instanceName the instance name
+     * @param role         the role
+     * @param stages       the stages
+     */
+    public record Snapshot(String instanceName, String role, Map<Stage, StageSnapshot> stages) {
+
+        /**
+         * Gets one stage
+         *
+         * @param stage the stage
+         * @return the stage
+         */
+        public StageSnapshot get(Stage stage) {
+            return stages.get(stage);
+        }
+    }
+
+    /**
+     * Instantiates the metrics of an instance name and role
+     *
+     * @param instanceName the instance name
+     * @param role         the role
+     */
+    private ConnectionMetrics(String instanceName, String role) {
+        this.instanceName = instanceName;
+        this.role = role;
+        for (Stage stage : Stage.values()) recorders.put(stage, new Recorder());
+    }
+
+    /**
+     * Gets enabled.
+     *
+     * @return value of enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables recording
+     *
+     * @param enabled an indicator denoting metrics are recorded
+     */
+    public static void setEnabled(boolean enabled) {
+        ConnectionMetrics.enabled = enabled;
+    }
+
+    /**
+     * Starts timing a stage
+     *
+     * @return the start time, 0 when metrics are disabled
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Records a stage started by {@link #start()}
+     *
+     * @param instanceName the instance name
+     * @param role         the role
+     * @param stage        the stage
+     * @param start        the start time
+     * @param success      an indicator denoting the stage succeeded
+     */
+    public static void record(String instanceName, String role, Stage stage, long start, boolean success) {
+        if (start == 0L || instanceName == null || role == null) return;
+        long elapsed = System.nanoTime() - start;
+        of(instanceName, role).recorders.get(stage).record(elapsed, success);
+    }
+
+    /**
+     * Gets the metrics of an instance name and role, creating and registering them when needed
+     *
+     * @param instanceName the instance name
+     * @param role         the role
+     * @return the metrics
+     */
+    static ConnectionMetrics of(String instanceName, String role) {
+        ConcurrentHashMap<String, ConnectionMetrics> roles = METRICS.get(instanceName);
+        if (roles != null) {
+            ConnectionMetrics result = roles.get(role);
+            if (result != null) return result;
+        }
+        return METRICS.computeIfAbsent(instanceName, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(role, k -> new ConnectionMetrics(instanceName, role).register());
+    }
+
+    /**
+     * Gets the metrics of an instance name and role
+     *
+     * @param instanceName the instance name
+     * @param role         the role
+     * @return the metrics, null when the instance name and role have not connected
+     */
+    public static ConnectionMetrics get(String instanceName, String role) {
+        Map<String, ConnectionMetrics> roles = METRICS.get(instanceName);
+        return roles == null ? null : roles.get(role);
+    }
+
+    /**
+     * Takes snapshots of the metrics of every instance name and role
+     *
+     * @return the snapshots
+     */
+    public static List<Snapshot> snapshots() {
+        List<Snapshot> result = new ArrayList<>();
+        for (Map<String, ConnectionMetrics> roles : METRICS.values())
+            for (ConnectionMetrics metrics : roles.values()) result.add(metrics.snapshot());
+        return result;
+    }
+
+    /**
+     * Discards the metrics of every instance name and role, unregistering their MBeans
+     */
+    public static void clear() {
+        for (Map<String, ConnectionMetrics> roles : METRICS.values())
+            for (ConnectionMetrics metrics : roles.values()) metrics.unregister();
+        METRICS.clear();
+    }
+
+    /**
+     * Takes a snapshot
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        EnumMap<Stage, StageSnapshot> stages = new EnumMap<>(Stage.class);
+        for (Map.Entry<Stage, Recorder> entry : recorders.entrySet()) stages.put(entry.getKey(), entry.getValue().snapshot());
+        return new Snapshot(instanceName, role, Collections.unmodifiableMap(stages));
+    }
+
+    @Override
+    public String getInstanceName() {
+        return instanceName;
+    }
+
+    @Override
+    public String getRole() {
+        return role;
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        return byStage(StageSnapshot::count);
+    }
+
+    @Override
+    public Map<String, Long> getFailures() {
+        return byStage(StageSnapshot::failures);
+    }
+
+    @Override
+    public Map<String, Long> getMeanNanos() {
+        return byStage(StageSnapshot::meanNanos);
+    }
+
+    @Override
+    public Map<String, Long> getP99Nanos() {
+        return byStage(stage -> stage.percentileNanos(99));
+    }
+
+    @Override
+    public Map<String, long[]> getHistograms() {
+        Map<String, long[]> result = new LinkedHashMap<>();
+        for (Map.Entry<Stage, Recorder> entry : recorders.entrySet())
+            result.put(entry.getKey().name(), entry.getValue().snapshot().histogram());
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        for (Recorder recorder : recorders.values()) recorder.reset();
+    }
+
+    /**
+     * Gets a value of each stage
+     *
+     * @param value the value of a stage
+     * @return the values, by stage name
+     */
+    private Map<String, Long> byStage(ToLongFunction<StageSnapshot> value) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<Stage, Recorder> entry : recorders.entrySet())
+            result.put(entry.getKey().name(), value.applyAsLong(entry.getValue().snapshot()));
+        return result;
+    }
+
+    /**
+     * Registers the MBean with the platform MBean server
+     *
+     * @return these metrics
+     */
+    private ConnectionMetrics register() {
+        try {
+            ObjectName name = new ObjectName("net.wf0b.code:type=ConnectionMetrics,instance="
+                    + ObjectName.quote(instanceName) + ",role=" + ObjectName.quote(role));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            e.printStackTrace(System.err);
+        }
+        return this;
+    }
+
+    /**
+     * Unregisters the MBean from the platform MBean server
+     */
+    private void unregister() {
+        if (objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            e.printStackTrace(System.err);
+        }
+        objectName = null;
+    }
+
+    /**
+     * Gets the histogram bucket of a latency
+     *
+     * @param elapsed the latency, in nanoseconds
+     * @return the bucket
+     */
+    private static int bucket(long elapsed) {
+        return elapsed <= 1 ? 0 : BUCKETS - 1 - Long.numberOfLeadingZeros(elapsed);
+    }
+}
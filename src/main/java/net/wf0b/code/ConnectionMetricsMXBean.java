@@ -0,0 +1,66 @@
+package net.wf0b.code;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link ConnectionMetrics}, one MBean for each instance name and role, named
+ * <code>net.wf0b.code:type=ConnectionMetrics,instance="...",role="..."</code>.
+ * <p>Each map is keyed by the name of the {@link ConnectionMetrics.Stage}.</p>
+ */
+public interface ConnectionMetricsMXBean {
+
+    /**
+     * Gets the instance name
+     *
+     * @return the instance name
+     */
+    String getInstanceName();
+
+    /**
+     * Gets the role
+     *
+     * @return the role
+     */
+    String getRole();
+
+    /**
+     * Gets the number of times each stage ran
+     *
+     * @return the counts, by stage
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * Gets the number of times each stage failed
+     *
+     * @return the failures, by stage
+     */
+    Map<String, Long> getFailures();
+
+    /**
+     * Gets the mean latency of each stage
+     *
+     * @return the mean latencies in nanoseconds, by stage
+     */
+    Map<String, Long> getMeanNanos();
+
+    /**
+     * Gets the 99th percentile latency of each stage
+     *
+     * @return the upper bounds of the 99th percentile latencies in nanoseconds, by stage
+     */
+    Map<String, Long> getP99Nanos();
+
+    /**
+     * Gets the latency histogram of each stage
+     *
+     * @return the histograms, by stage; bucket <code>i</code> counts latencies from 2<sup>i</sup> to
+     * 2<sup>i+1</sup>-1 nanoseconds
+     */
+    Map<String, long[]> getHistograms();
+
+    /**
+     * Clears the counts and histograms
+     */
+    void reset();
+}
@@ -0,0 +1,495 @@
+package net.wf0b.code;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A bounded pool of physical connections for a single Credential.
+ * <p>Pooling is enabled with the system property <code>ConnectionCredential.pool=true</code> or
+ * {@link #setPooled(boolean)}. Once enabled, {@link Credential#getConnection(Properties)} borrows from the pool owned
+ * by the credential's instance name and role, and the connection properties given; closing the connection returns it
+ * to the pool. Callers passing different properties get connections from different pools.</p>
+ * <p>The pool is sized by the following system properties, read when a pool is first created:</p>
+ * <ul>
+ * <li><code>ConnectionCredential.pool.minIdle</code> - idle connections kept open (default 0)</li>
+ * <li><code>ConnectionCredential.pool.maxSize</code> - connections open at once (default 10)</li>
+ * <li><code>ConnectionCredential.pool.acquireTimeout</code> - milliseconds to wait for a connection (default 30000)</li>
+ * <li><code>ConnectionCredential.pool.validationTimeout</code> - seconds allowed to validate on borrow (default 5)</li>
+ * <li><code>ConnectionCredential.pool.maxLifetime</code> - milliseconds a connection is kept (default 1800000)</li>
+ * </ul>
+ */
+public class ConnectionPool {
+
+    /**
+     * Supplies a physical connection.
+     */
+    @FunctionalInterface
+    interface Connector {
+        /**
+         * Opens a physical connection
+         *
+         * @return the connection
+         * @throws SQLException when the connection fails
+         */
+        Connection connect() throws SQLException;
+    }
+
+    /**
+     * The pools, keyed by instance name, role and connection properties.
+     */
+    private static final ConcurrentHashMap<String, ConnectionPool> POOLS = new ConcurrentHashMap<>();
+
+    /**
+     * The housekeeper evicting expired connections and refilling the minimum idle.
+     */
+    private static final ScheduledExecutorService HOUSEKEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ConnectionPool-housekeeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * An indicator denoting pooling is enabled.
+     */
+    private static volatile boolean pooled = Boolean.getBoolean("ConnectionCredential.pool");
+
+    /**
+     * The source of physical connections.
+     */
+    private final Connector connector;
+
+    /**
+     * The settings of the credential that shape its connections, as the pool was created for.
+     */
+    private final String signature;
+
+    /**
+     * The idle connections kept open.
+     */
+    private final int minIdle;
+
+    /**
+     * The connections open at once.
+     */
+    private final int maxSize;
+
+    /**
+     * The milliseconds to wait for a connection.
+     */
+    private final long acquireTimeout;
+
+    /**
+     * The seconds allowed to validate a connection on borrow.
+     */
+    private final int validationTimeout;
+
+    /**
+     * The milliseconds a physical connection is kept.
+     */
+    private final long maxLifetime;
+
+    /**
+     * The permits to hold a physical connection, idle or borrowed, one per connection up to the maximum size.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The idle connections, most recently used first.
+     */
+    private final LinkedBlockingDeque<Entry> idle = new LinkedBlockingDeque<>();
+
+    /**
+     * An indicator denoting the pool is closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * A physical connection with its time of creation.
+     */
+    private static final class Entry {
+
+        /**
+         * The physical connection.
+         */
+        private final Connection connection;
+
+        /**
+         * The time of creation, in nanoseconds.
+         */
+        private final long created = System.nanoTime();
+
+        /**
+         * Instantiates an entry
+         *
+         * @param connection the physical connection
+         */
+        private Entry(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Instantiates a pool sized from the system properties
+     *
+     * @param connector the source of physical connections
+     * @param signature the settings of the credential that shape its connections
+     */
+    ConnectionPool(Connector connector, String signature) {
+        this(connector, signature,
+                Integer.getInteger("ConnectionCredential.pool.minIdle", 0),
+                Integer.getInteger("ConnectionCredential.pool.maxSize", 10),
+                Long.getLong("ConnectionCredential.pool.acquireTimeout", 30000L),
+                Integer.getInteger("ConnectionCredential.pool.validationTimeout", 5),
+                Long.getLong("ConnectionCredential.pool.maxLifetime", 1800000L));
+    }
+
+    /**
+     * Instantiates a pool
+     *
+     * @param connector         the source of physical connections
+     * @param signature         the settings of the credential that shape its connections
+     * @param minIdle           the idle connections kept open
+     * @param maxSize           the connections open at once
+     * @param acquireTimeout    the milliseconds to wait for a connection
+     * @param validationTimeout the seconds allowed to validate a connection on borrow
+     * @param maxLifetime       the milliseconds a physical connection is kept
+     */
+    ConnectionPool(Connector connector, String signature, int minIdle, int maxSize, long acquireTimeout,
+                   int validationTimeout, long maxLifetime) {
+        this.connector = connector;
+        this.signature = signature;
+        this.maxSize = Math.max(1, maxSize);
+        this.minIdle = Math.min(Math.max(0, minIdle), this.maxSize);
+        this.acquireTimeout = acquireTimeout;
+        this.validationTimeout = validationTimeout;
+        this.maxLifetime = maxLifetime;
+        this.permits = new Semaphore(this.maxSize, true);
+        if (this.minIdle > 0) HOUSEKEEPER.execute(this::maintain);
+    }
+
+    /**
+     * Gets an indicator denoting pooling is enabled
+     *
+     * @return an indicator denoting pooling is enabled
+     */
+    public static boolean isPooled() {
+        return pooled;
+    }
+
+    /**
+     * Enables or disables pooling; disabling closes the existing pools
+     *
+     * @param enabled an indicator denoting pooling is enabled
+     */
+    public static void setPooled(boolean enabled) {
+        pooled = enabled;
+        if (!enabled) closeAll();
+    }
+
+    /**
+     * Closes every pool
+     */
+    public static void closeAll() {
+        for (String key : POOLS.keySet()) {
+            ConnectionPool pool = POOLS.remove(key);
+            if (pool != null) pool.close();
+        }
+    }
+
+    /**
+     * Gets the pool owned by a credential for connection properties, replacing it when the credential has changed
+     * <p>The pool keeps a copy of the properties, so changing them afterwards does not change its connections.</p>
+     *
+     * @param credential the credential
+     * @param properties the non-user, non-password attributes or properties of the connection
+     * @return the pool
+     */
+    static ConnectionPool of(Credential credential, Properties properties) {
+        Properties copy = new Properties();
+        StringBuilder key = new StringBuilder(credential.getInstanceName()).append(':').append(credential.getAccount());
+        if (properties != null) {
+            for (String name : new TreeSet<>(properties.stringPropertyNames())) {
+                copy.setProperty(name, properties.getProperty(name));
+                key.append(';').append(name).append('=').append(properties.getProperty(name));
+            }
+        }
+        String signature = signature(credential);
+        ConnectionPool pool = POOLS.compute(key.toString(), (k, existing) -> {
+            if (existing != null && existing.signature.equals(signature) && !existing.closed) return existing;
+            if (existing != null) existing.close();
+            return new ConnectionPool(() -> credential.openConnection(copy), signature);
+        });
+        return pool;
+    }
+
+    /**
+     * Gets the settings of a credential that shape its connections; a pool is replaced when any of them changes
+     *
+     * @param credential the credential
+     * @return the driver, user, endpoints, statement cache size and encrypted password of the credential
+     */
+    static String signature(Credential credential) {
+        return String.join("\n", String.valueOf(credential.getDriverName()), credential.getUser(),
+                String.join(",", credential.getEndpoints()), String.valueOf(credential.getStatementCacheSize()),
+                credential.getEncrypted());
+    }
+
+    /**
+     * Borrows a connection, waiting up to the acquire timeout for one to become available
+     * <p>An idle connection already holds its permit and is handed over with it; a new connection is opened only
+     * when a permit is free, so idle and borrowed connections together never exceed the maximum size.</p>
+     *
+     * @return the connection; closing it returns it to the pool
+     * @throws SQLException when no connection is available in time or the connection fails
+     */
+    Connection borrow() throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(acquireTimeout);
+        try {
+            while (true) {
+                if (closed) throw new SQLException("connection pool is closed");
+                Entry entry = idle.pollFirst();
+                if (entry != null) {
+                    if (!isExpired(entry) && isValid(entry)) return lease(entry);
+                    discard(entry);
+                    continue;
+                }
+                if (permits.tryAcquire()) {
+                    try {
+                        return lease(new Entry(connector.connect()));
+                    } catch (SQLException | RuntimeException e) {
+                        permits.release();
+                        throw e;
+                    }
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    throw new SQLTimeoutException("no connection available within " + acquireTimeout + "ms");
+                // a returned connection wakes the wait at once; a discarded one frees a permit seen on the next pass
+                entry = idle.pollFirst(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)), TimeUnit.NANOSECONDS);
+                if (entry != null) idle.offerFirst(entry);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted waiting for a connection", e);
+        }
+    }
+
+    /**
+     * Gets the number of idle connections
+     *
+     * @return the number of idle connections
+     */
+    int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * Gets the number of connections currently borrowed
+     *
+     * @return the number of connections currently borrowed
+     */
+    int getActive() {
+        return Math.max(0, maxSize - permits.availablePermits() - idle.size());
+    }
+
+    /**
+     * Closes the pool and its idle connections; borrowed connections are closed as they are returned
+     */
+    void close() {
+        closed = true;
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) discard(entry);
+    }
+
+    /**
+     * Returns a borrowed connection
+     *
+     * @param entry  the physical connection
+     * @param broken an indicator denoting the connection failed while borrowed
+     */
+    private void release(Entry entry, boolean broken) {
+        if (closed || broken || isExpired(entry) || !reset(entry)) {
+            discard(entry);
+            return;
+        }
+        idle.offerFirst(entry);
+        if (closed && idle.remove(entry)) discard(entry);
+    }
+
+    /**
+     * Closes a physical connection and frees its permit
+     *
+     * @param entry the physical connection
+     */
+    private void discard(Entry entry) {
+        try {
+            closeQuietly(entry);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Restores a connection to its initial state before it is reused
+     *
+     * @param entry the physical connection
+     * @return an indicator denoting the connection can be reused
+     */
+    private boolean reset(Entry entry) {
+        try {
+            Connection connection = entry.connection;
+            if (connection.isClosed()) return false;
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (connection.isReadOnly()) connection.setReadOnly(false);
+            connection.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Determines if a connection has outlived the maximum lifetime
+     *
+     * @param entry the physical connection
+     * @return an indicator denoting the connection has expired
+     */
+    private boolean isExpired(Entry entry) {
+        return maxLifetime > 0 && System.nanoTime() - entry.created > TimeUnit.MILLISECONDS.toNanos(maxLifetime);
+    }
+
+    /**
+     * Validates a connection on borrow
+     *
+     * @param entry the physical connection
+     * @return an indicator denoting the connection is usable
+     */
+    private boolean isValid(Entry entry) {
+        try {
+            return entry.connection.isValid(validationTimeout);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Evicts expired idle connections and refills the minimum idle, then reschedules itself
+     */
+    private void maintain() {
+        if (closed) return;
+        for (Entry entry : idle) {
+            if (isExpired(entry) && idle.remove(entry)) discard(entry);
+        }
+        while (!closed && idle.size() < minIdle && permits.tryAcquire()) {
+            Entry entry;
+            try {
+                entry = new Entry(connector.connect());
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                e.printStackTrace(System.err);
+                break;
+            }
+            idle.offerLast(entry);
+            if (closed && idle.remove(entry)) discard(entry);
+        }
+        if (!closed) HOUSEKEEPER.schedule(this::maintain, 30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Closes a physical connection, ignoring any failure
+     *
+     * @param entry the physical connection
+     */
+    private static void closeQuietly(Entry entry) {
+        try {
+            entry.connection.close();
+        } catch (SQLException ignored) {
+            // the connection is being discarded
+        }
+    }
+
+    /**
+     * Wraps a physical connection so that closing it returns it to the pool
+     *
+     * @param entry the physical connection
+     * @return the borrowed connection
+     */
+    private Connection lease(Entry entry) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new Lease(entry));
+    }
+
+    /**
+     * The handler of a borrowed connection.
+     */
+    private final class Lease implements InvocationHandler {
+
+        /**
+         * The physical connection.
+         */
+        private final Entry entry;
+
+        /**
+         * An indicator denoting the connection has been returned.
+         */
+        private final AtomicBoolean returned = new AtomicBoolean(false);
+
+        /**
+         * An indicator denoting the connection failed while borrowed.
+         */
+        private volatile boolean broken = false;
+
+        /**
+         * Instantiates the handler
+         *
+         * @param entry the physical connection
+         */
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (returned.compareAndSet(false, true)) release(entry, broken);
+                    return null;
+                case "isClosed":
+                    return returned.get() || entry.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + entry.connection;
+                default:
+                    if (returned.get()) throw new SQLException("connection is closed");
+            }
+            try {
+                return method.invoke(entry.connection, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException sqle && sqle.getSQLState() != null && sqle.getSQLState().startsWith("08"))
+                    broken = true;
+                throw cause;
+            }
+        }
+    }
+}
@@ -4,17 +4,27 @@ import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.Driver;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The credential supplies the essential items for obtaining a connection to a database.
@@ -36,6 +46,21 @@ public class Credential {
      */
     private final String driverName;
 
+    /**
+     * The further connection strings, tried when the connection string fails; null when there are none.
+     */
+    private List<String> endpoints;
+
+    /**
+     * The instance name of the primary this credential is a replica of; null for a primary.
+     */
+    private String replicaOf;
+
+    /**
+     * The prepared statements cached for each physical connection; null when none are.
+     */
+    private Integer statementCacheSize;
+
     /**
      * The user name.
      */
@@ -46,11 +71,132 @@ public class Credential {
      */
     private String password;
 
+    /**
+     * The user's password, encrypted and decoded from Base64; decoded when first needed, by any thread.
+     */
+    private transient volatile byte[] encrypted;
+
     /**
      * An indicator denoting the credential is no longer used.
      */
     private boolean active = true;
 
+    /**
+     * The encrypting cipher of each thread.
+     */
+    private static final ThreadLocal<ThreadCipher> ENCRYPT = ThreadLocal.withInitial(() -> new ThreadCipher(Cipher.ENCRYPT_MODE));
+
+    /**
+     * The decrypting cipher of each thread.
+     */
+    private static final ThreadLocal<ThreadCipher> DECRYPT = ThreadLocal.withInitial(() -> new ThreadCipher(Cipher.DECRYPT_MODE));
+
+    /**
+     * A cipher confined to one thread, initialized once for the current key.
+     */
+    private static final class ThreadCipher {
+
+        /**
+         * The cipher mode, encrypt or decrypt.
+         */
+        private final int mode;
+
+        /**
+         * The cipher.
+         */
+        private Cipher cipher;
+
+        /**
+         * The key the cipher was initialized with.
+         */
+        private SecretKeySpec key;
+
+        /**
+         * The plaintext scratch space, wiped after each use.
+         */
+        private byte[] bytes = new byte[0];
+
+        /**
+         * The character scratch space, wiped after each use.
+         */
+        private char[] chars = new char[0];
+
+        /**
+         * The UTF-8 decoder, replacing malformed input as <code>new String</code> does.
+         */
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        /**
+         * The UTF-8 encoder, replacing unmappable input as <code>String.getBytes</code> does.
+         */
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        /**
+         * Instantiates a thread cipher
+         *
+         * @param mode the cipher mode, encrypt or decrypt
+         */
+        private ThreadCipher(int mode) {
+            this.mode = mode;
+        }
+
+        /**
+         * Gets the cipher, initialized for the key
+         *
+         * @param key the secret key
+         * @return the cipher
+         * @throws NoSuchAlgorithmException when AES is not available
+         * @throws NoSuchPaddingException   when the padding is not available
+         * @throws InvalidKeyException      when the key is not valid
+         */
+        private Cipher get(SecretKeySpec key) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException {
+            if (cipher == null) cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
+            if (key != this.key) {
+                this.key = null;
+                cipher.init(mode, key);
+                this.key = key;
+            }
+            return cipher;
+        }
+
+        /**
+         * Gets the plaintext scratch space, wiping and dropping a smaller one
+         *
+         * @param capacity the bytes needed
+         * @return the scratch space
+         */
+        private byte[] bytes(int capacity) {
+            if (bytes.length < capacity) {
+                Arrays.fill(bytes, (byte) 0);
+                bytes = new byte[Math.max(64, capacity)];
+            }
+            return bytes;
+        }
+
+        /**
+         * Gets the character scratch space, wiping and dropping a smaller one
+         *
+         * @param capacity the characters needed
+         * @return the scratch space
+         */
+        private char[] chars(int capacity) {
+            if (chars.length < capacity) {
+                Arrays.fill(chars, '\0');
+                chars = new char[Math.max(64, capacity)];
+            }
+            return chars;
+        }
+
+        /**
+         * Forces initialization on the next use, after a failure
+         */
+        private void reset() {
+            this.key = null;
+        }
+    }
+
     /**
      * Instantiates a credential for the current user.
      *
@@ -82,17 +228,46 @@ public class Credential {
         this.user = role;
     }
 
+    /**
+     * Instantiates a credential as it was stored, with the password already encrypted.
+     *
+     * @param instanceName     the instance name, representing the application or operational name of the database
+     * @param driverName       the driver name
+     * @param connectionString the connection string
+     * @param user             the user name the credential was stored under
+     * @param encrypted        the encrypted password
+     * @param active           an indicator denoting the credential is in use
+     */
+    protected Credential(String instanceName, String driverName, String connectionString, String user, String encrypted,
+                         boolean active) {
+        this.instanceName = instanceName;
+        this.driverName = driverName;
+        this.connectionString = connectionString;
+        this.user = user;
+        this.password = encrypted;
+        this.active = active;
+    }
+
     /**
      * sets the password
+     * <p>The password is encoded in the scratch space of the thread, never as a <code>String</code>, and the
+     * scratch space and the password are wiped.</p>
      *
      * @param password the password
      */
     protected void setPassword(char[] password) {
+        ThreadCipher encrypt = ENCRYPT.get();
+        byte[] plain = encrypt.bytes((int) (password.length * encrypt.encoder.maxBytesPerChar()));
+        int length = 0;
         try {
-            SecretKeySpec key = OperatingSystem.getKey();
-            Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            this.password = Base64.getEncoder().encodeToString(cipher.doFinal(new String(password).getBytes(StandardCharsets.UTF_8)));
+            Cipher cipher = encrypt.get(OperatingSystem.getKey());
+            ByteBuffer buffer = ByteBuffer.wrap(plain);
+            encrypt.encoder.reset().encode(CharBuffer.wrap(password), buffer, true);
+            encrypt.encoder.flush(buffer);
+            length = buffer.position();
+            byte[] result = cipher.doFinal(plain, 0, length);
+            this.password = Base64.getEncoder().encodeToString(result);
+            this.encrypted = result;
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace(System.err);
         } catch (NoSuchPaddingException e) {
@@ -100,9 +275,13 @@ public class Credential {
         } catch (InvalidKeyException e) {
             e.printStackTrace(System.err);
         } catch (IllegalBlockSizeException e) {
+            encrypt.reset();
             e.printStackTrace(System.err);
         } catch (BadPaddingException e) {
+            encrypt.reset();
             e.printStackTrace(System.err);
+        } finally {
+            Arrays.fill(plain, 0, length, (byte) 0);
         }
         Arrays.fill(password, ' ');
     }
@@ -113,7 +292,7 @@ public class Credential {
      * @return the identifier of the credential
      */
     protected Integer getIdentifier() {
-        return (instanceName + ":" + user).hashCode();
+        return CredentialKey.hash(instanceName, user);
     }
 
     /**
@@ -134,6 +313,63 @@ public class Credential {
         return connectionString;
     }
 
+    /**
+     * Gets the endpoints: the connection string, then the further connection strings, in the order declared.
+     *
+     * @return the connection strings
+     */
+    protected List<String> getEndpoints() {
+        List<String> result = new ArrayList<>();
+        result.add(connectionString);
+        if (endpoints != null) result.addAll(endpoints);
+        return result;
+    }
+
+    /**
+     * Sets the further connection strings, tried when the connection string fails (see {@link EndpointHealth}).
+     *
+     * @param endpoints the further connection strings, in the order preferred; null or empty for none
+     */
+    protected void setEndpoints(List<String> endpoints) {
+        this.endpoints = endpoints == null || endpoints.isEmpty() ? null : List.copyOf(endpoints);
+    }
+
+    /**
+     * Gets replicaOf.
+     *
+     * @return the instance name of the primary this credential is a replica of; null for a primary
+     */
+    protected String getReplicaOf() {
+        return replicaOf;
+    }
+
+    /**
+     * Sets the primary this credential is a replica of (see {@link ReplicaRouter}).
+     *
+     * @param replicaOf the instance name of the primary, under the same role; null for a primary
+     */
+    protected void setReplicaOf(String replicaOf) {
+        this.replicaOf = replicaOf;
+    }
+
+    /**
+     * Gets the size of the statement cache.
+     *
+     * @return the prepared statements cached for each physical connection; 0 when none are
+     */
+    protected int getStatementCacheSize() {
+        return statementCacheSize == null ? 0 : statementCacheSize;
+    }
+
+    /**
+     * Sets the size of the statement cache (see {@link StatementCache}).
+     *
+     * @param statementCacheSize the prepared statements cached for each physical connection; 0 for none
+     */
+    protected void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize > 0 ? statementCacheSize : null;
+    }
+
     /**
      * Gets driverName.
      *
@@ -162,19 +398,36 @@ public class Credential {
         else return user;
     }
 
+    /**
+     * Gets account, the user name the credential was stored under.
+     *
+     * @return value of user
+     */
+    protected String getAccount() {
+        return user;
+    }
+
+    /**
+     * Gets the password, as encrypted.
+     *
+     * @return value of password
+     */
+    protected String getEncrypted() {
+        return password;
+    }
+
     /**
      * Gets the connection from the Connection Credentials
+     * <p>When pooling is enabled (see {@link ConnectionPool}), the connection is borrowed from the pool for this
+     * instance name and role, and closing it returns it to the pool.</p>
      *
      * @param properties the non-user, non-password attributes or properties of the connection
      * @return connection
      */
     public Connection getConnection(Properties properties) {
         Connection result = null;
-        Properties p = new Properties(properties);
-        p.setProperty("user", getUser());
-        p.setProperty("password", getCred());
         try {
-            result = DriverManager.getConnection(getConnectionString(), properties);
+            result = acquire(properties);
         } catch (SQLException sqle) {
             sqle.printStackTrace();
         }
@@ -182,31 +435,244 @@ public class Credential {
         return result;
     }
 
+    /**
+     * Gets the connection from the Connection Credentials asynchronously
+     * <p>Connections to several instances may be acquired at once, overlapping their handshakes. Cancelling the
+     * future, or its timing out, interrupts the acquisition and closes any connection acquired late.</p>
+     *
+     * @param properties the non-user, non-password attributes or properties of the connection
+     * @param timeout    the time allowed, null for no limit
+     * @return the future connection
+     */
+    public CompletableFuture<Connection> getConnectionAsync(Properties properties, Duration timeout) {
+        return ConnectionExecutor.submit(() -> acquire(properties), timeout);
+    }
+
+    /**
+     * Acquires the connection, from the pool when pooling is enabled
+     * <p>When leak detection is enabled, the connection is tracked until it is closed (see {@link LeakDetector}).</p>
+     *
+     * @param properties the non-user, non-password attributes or properties of the connection
+     * @return connection
+     * @throws SQLException when the connection fails
+     */
+    protected Connection acquire(Properties properties) throws SQLException {
+        Connection result = ConnectionPool.isPooled() ? ConnectionPool.of(this, properties).borrow()
+                : openConnection(properties);
+        return LeakDetector.track(result, CredentialKey.of(this));
+    }
+
+    /**
+     * Opens a physical connection from the Connection Credentials
+     * <p>The driver named in the credential is called directly (see {@link DriverCache}). The decrypt, driver and
+     * connect stages are recorded in {@link ConnectionMetrics}.</p>
+     * <p>A credential with further connection strings tries its endpoints healthiest first, as ordered by
+     * {@link EndpointHealth}, until one connects.</p>
+     * <p>A credential with a statement cache wraps the connection in a {@link StatementCache}.</p>
+     *
+     * @param properties the non-user, non-password attributes or properties of the connection
+     * @return connection
+     * @throws SQLException when the connection fails
+     */
+    protected Connection openConnection(Properties properties) throws SQLException {
+        if (endpoints == null) return cache(openConnection(getConnectionString(), properties));
+        SQLException failure = null;
+        for (String endpoint : EndpointHealth.order(getEndpoints())) {
+            long start = System.nanoTime();
+            try {
+                Connection result = openConnection(endpoint, properties);
+                EndpointHealth.succeeded(endpoint, System.nanoTime() - start);
+                return cache(result);
+            } catch (SQLException e) {
+                EndpointHealth.failed(endpoint, () -> openConnection(endpoint, properties));
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Wraps a physical connection in a statement cache, when the credential has one
+     *
+     * @param connection the physical connection
+     * @return the connection
+     */
+    private Connection cache(Connection connection) {
+        int size = getStatementCacheSize();
+        return size > 0 ? StatementCache.wrap(connection, size, CredentialKey.of(this)) : connection;
+    }
+
+    /**
+     * Opens a physical connection to an endpoint
+     *
+     * @param endpoint   the connection string
+     * @param properties the non-user, non-password attributes or properties of the connection
+     * @return connection
+     * @throws SQLException when the connection fails
+     */
+    private Connection openConnection(String endpoint, Properties properties) throws SQLException {
+        Properties p = new Properties(properties);
+        p.setProperty("user", getUser());
+        long start = ConnectionMetrics.start();
+        record(ConnectionMetrics.Stage.DECRYPT, start, putPassword(p));
+        // the password in the clear is held no longer than the driver is called
+        try {
+            start = ConnectionMetrics.start();
+            Driver driver;
+            try {
+                driver = DriverCache.get(getDriverName(), endpoint);
+            } catch (SQLException e) {
+                record(ConnectionMetrics.Stage.DRIVER, start, false);
+                throw e;
+            }
+            record(ConnectionMetrics.Stage.DRIVER, start, true);
+
+            start = ConnectionMetrics.start();
+            Connection result = null;
+            try {
+                result = driver.connect(endpoint, p);
+                if (result == null) throw new SQLException("No suitable driver found for " + endpoint, "08001");
+                return result;
+            } finally {
+                record(ConnectionMetrics.Stage.CONNECT, start, result != null);
+            }
+        } finally {
+            p.remove("password");
+        }
+    }
+
+    /**
+     * Decrypts the password into the properties of a connection, keeping no other reference to it
+     *
+     * @param p the properties of the connection
+     * @return an indicator denoting the password, when there is one, was decrypted
+     */
+    private boolean putPassword(Properties p) {
+        String cred = getCred();
+        if (cred != null) p.setProperty("password", cred);
+        return password == null || cred != null;
+    }
+
+    /**
+     * Records a stage of getting a connection, under the instance name and role of this credential
+     *
+     * @param stage   the stage
+     * @param start   the start time, from {@link ConnectionMetrics#start()}
+     * @param success an indicator denoting the stage succeeded
+     */
+    private void record(ConnectionMetrics.Stage stage, long start, boolean success) {
+        ConnectionMetrics.record(instanceName, user, stage, start, success);
+    }
+
     /**
      * Gets the Credential, in the clear
+     * <p>A JDBC driver takes the password only as a <code>String</code>; prefer {@link #getCred(char[])} or
+     * {@link #getCred(ByteBuffer)} elsewhere.</p>
      *
      * @return in the clear
      */
     protected String getCred() {
-        String result = null;
+        byte[] encrypted = getEncryptedBytes();
+        if (encrypted == null) return null;
+        char[] chars = DECRYPT.get().chars(encrypted.length);
+        int length = getCred(chars);
+        try {
+            return length < 0 ? null : new String(chars, 0, length);
+        } finally {
+            Arrays.fill(chars, 0, Math.max(length, 0), '\0');
+        }
+    }
+
+    /**
+     * Gets the Credential, in the clear, into the caller's characters, without allocating; the caller wipes them
+     * when done
+     *
+     * @param destination the characters, at least as many as the password has
+     * @return the characters written, from the start of the destination; -1 when there is no password, it can not be
+     * decrypted, or the destination is too short
+     */
+    protected int getCred(char[] destination) {
+        ThreadCipher decrypt = DECRYPT.get();
+        int length = decrypt(decrypt);
+        if (length < 0) return -1;
         try {
-            SecretKeySpec key = OperatingSystem.getKey();
-            Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
-            cipher.init(Cipher.DECRYPT_MODE, key);
-            byte[] x = cipher.doFinal(Base64.getDecoder().decode(this.password));
-            result = new String(x, StandardCharsets.UTF_8);
-            Arrays.fill(x, (byte) 0);
+            CharBuffer chars = CharBuffer.wrap(destination);
+            CharsetDecoder decoder = decrypt.decoder.reset();
+            if (decoder.decode(ByteBuffer.wrap(decrypt.bytes, 0, length), chars, true).isOverflow()
+                    || decoder.flush(chars).isOverflow()) {
+                Arrays.fill(destination, '\0');
+                return -1;
+            }
+            return chars.position();
+        } finally {
+            Arrays.fill(decrypt.bytes, 0, length, (byte) 0);
+        }
+    }
+
+    /**
+     * Gets the Credential, in the clear, as UTF-8 into the caller's buffer, which may be direct, without allocating;
+     * the caller wipes it when done
+     *
+     * @param destination the buffer, written from its position, which is advanced
+     * @return the bytes written; -1 when there is no password, it can not be decrypted, or the buffer is too short
+     */
+    protected int getCred(ByteBuffer destination) {
+        ThreadCipher decrypt = DECRYPT.get();
+        int length = decrypt(decrypt);
+        if (length < 0) return -1;
+        try {
+            if (destination.remaining() < length) return -1;
+            destination.put(decrypt.bytes, 0, length);
+            return length;
+        } finally {
+            Arrays.fill(decrypt.bytes, 0, length, (byte) 0);
+        }
+    }
+
+    /**
+     * Decrypts the password into the plaintext scratch space of the thread, which the caller wipes
+     *
+     * @param decrypt the decrypting cipher of the thread
+     * @return the bytes of the password, from the start of the scratch space; -1 when there is no password or it
+     * can not be decrypted
+     */
+    private int decrypt(ThreadCipher decrypt) {
+        byte[] encrypted = getEncryptedBytes();
+        if (encrypted == null) return -1;
+        byte[] plain = decrypt.bytes(encrypted.length);
+        try {
+            Cipher cipher = decrypt.get(OperatingSystem.getKey());
+            return cipher.doFinal(encrypted, 0, encrypted.length, plain, 0);
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace(System.err);
         } catch (NoSuchPaddingException e) {
             e.printStackTrace(System.err);
         } catch (InvalidKeyException e) {
             e.printStackTrace(System.err);
+        } catch (ShortBufferException e) {
+            decrypt.reset();
+            e.printStackTrace(System.err);
         } catch (IllegalBlockSizeException e) {
+            decrypt.reset();
             e.printStackTrace(System.err);
         } catch (BadPaddingException e) {
+            decrypt.reset();
             e.printStackTrace(System.err);
         }
+        // a failed decryption may leave part of the plaintext
+        Arrays.fill(plain, (byte) 0);
+        return -1;
+    }
+
+    /**
+     * Gets the password, as encrypted and decoded from Base64, decoding it once
+     *
+     * @return the encrypted password; null when there is none
+     */
+    private byte[] getEncryptedBytes() {
+        byte[] result = encrypted;
+        if (result == null && password != null) encrypted = result = Base64.getDecoder().decode(password);
         return result;
     }
 
@@ -0,0 +1,158 @@
+package net.wf0b.code;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Reads and writes a credential as JSON, field by field, in place of Gson's reflection.
+ * <p>The JSON is that Gson writes by reflection: the fields in the order declared, nulls left out. A credential is
+ * read through its stored-form constructor, so its password stays encrypted until first used (see
+ * {@link Credential#getCred()}); the driver names, roles and primaries, repeated across a store, are shared rather
+ * than held once per credential. Fields not known are skipped.</p>
+ * <p>An adapter may be given a filter of instance names: a credential it rejects is skipped without being built,
+ * and read as null.</p>
+ */
+final class CredentialAdapter extends TypeAdapter<Credential> {
+
+    /**
+     * The filter of instance names read; null for every instance name.
+     */
+    private final Predicate<String> instances;
+
+    /**
+     * Instantiates an adapter
+     *
+     * @param instances the filter of instance names read; null for every instance name
+     */
+    CredentialAdapter(Predicate<String> instances) {
+        this.instances = instances;
+    }
+
+    @Override
+    public void write(JsonWriter out, Credential credential) throws IOException {
+        if (credential == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        name(out, "instanceName", credential.getInstanceName());
+        name(out, "connectionString", credential.getConnectionString());
+        name(out, "driverName", credential.getDriverName());
+        List<String> endpoints = credential.getEndpoints();
+        if (endpoints.size() > 1) {
+            out.name("endpoints").beginArray();
+            for (String endpoint : endpoints.subList(1, endpoints.size())) out.value(endpoint);
+            out.endArray();
+        }
+        name(out, "replicaOf", credential.getReplicaOf());
+        if (credential.getStatementCacheSize() > 0) out.name("statementCacheSize").value(credential.getStatementCacheSize());
+        name(out, "user", credential.getAccount());
+        name(out, "password", credential.getEncrypted());
+        out.name("active").value(credential.isActive());
+        out.endObject();
+    }
+
+    @Override
+    public Credential read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String instanceName = null;
+        String connectionString = null;
+        String driverName = null;
+        List<String> endpoints = null;
+        String replicaOf = null;
+        int statementCacheSize = 0;
+        String user = null;
+        String password = null;
+        boolean active = true;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "instanceName":
+                    instanceName = in.nextString();
+                    if (instances != null && !instances.test(instanceName)) {
+                        skipRest(in);
+                        return null;
+                    }
+                    break;
+                case "connectionString":
+                    connectionString = in.nextString();
+                    break;
+                case "driverName":
+                    driverName = in.nextString().intern();
+                    break;
+                case "endpoints":
+                    endpoints = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) endpoints.add(in.nextString());
+                    in.endArray();
+                    break;
+                case "replicaOf":
+                    replicaOf = in.nextString().intern();
+                    break;
+                case "statementCacheSize":
+                    statementCacheSize = in.nextInt();
+                    break;
+                case "user":
+                    user = in.nextString().intern();
+                    break;
+                case "password":
+                    password = in.nextString();
+                    break;
+                case "active":
+                    active = in.nextBoolean();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        // the instance name came after other fields
+        if (instances != null && (instanceName == null || !instances.test(instanceName))) return null;
+        Credential result = new Credential(instanceName, driverName, connectionString, user, password, active);
+        result.setEndpoints(endpoints);
+        result.setReplicaOf(replicaOf);
+        result.setStatementCacheSize(statementCacheSize);
+        return result;
+    }
+
+    /**
+     * Writes a field, unless null
+     *
+     * @param out   the writer
+     * @param name  the name of the field
+     * @param value the value
+     * @throws IOException for any IO error
+     */
+    private static void name(JsonWriter out, String name, String value) throws IOException {
+        if (value != null) out.name(name).value(value);
+    }
+
+    /**
+     * Skips the rest of an object, through its end
+     *
+     * @param in the reader
+     * @throws IOException for any IO error
+     */
+    private static void skipRest(JsonReader in) throws IOException {
+        while (in.hasNext()) {
+            in.nextName();
+            in.skipValue();
+        }
+        in.endObject();
+    }
+}
@@ -0,0 +1,436 @@
+package net.wf0b.code;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import jdk.net.ExtendedSocketOptions;
+import jdk.net.UnixDomainPrincipal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A long-running agent, like ssh-agent, serving credentials in the clear over a Unix domain socket.
+ * <p>Each short-lived tool would otherwise start a JVM, read the store and derive the key to get one connection
+ * string and password. The agent reads the store (refreshing it as it changes), keeps each credential decrypted once
+ * it has been asked for, and answers a lookup in microseconds.</p>
+ * <p>The socket is <code>.agent.sock</code> in the application home, or the system property
+ * <code>ConnectionCredential.agent.socket</code>. It is readable and writable by its owner only, from before it is in
+ * place, and, where the platform reports the peer of a connection, a peer that is not the owner of the socket is
+ * refused. Where the platform has neither file permissions nor peer credentials, the agent does not start.</p>
+ * <p>A client calls {@link #lookup(String, String)} or {@link #getConnection(String, String, Properties)}, which
+ * use the agent when it is running and the store otherwise; then only the credentials of the instance name are read
+ * (see {@link CredentialStore#read(String)}).</p>
+ * <p>The protocol is one line of JSON for each request, <code>{"instanceName":"...","role":"..."}</code>, answered
+ * by one line of JSON, the {@link Lookup}, or <code>null</code> when there is no credential.</p>
+ */
+public class CredentialAgent implements AutoCloseable {
+
+    /**
+     * The serializer of requests and answers.
+     */
+    private static final Gson GSON = new Gson();
+
+    /**
+     * The socket.
+     */
+    private final Path socket;
+
+    /**
+     * The store served.
+     */
+    private final CredentialStore store;
+
+    /**
+     * The credentials in the clear, by key.
+     */
+    private final ConcurrentHashMap<CredentialKey, Answer> answers = new ConcurrentHashMap<>();
+
+    /**
+     * The handlers of connections.
+     */
+    private final ExecutorService handlers = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ConnectionCredential-agent");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The server channel, null until started.
+     */
+    private ServerSocketChannel server;
+
+    /**
+     * The thread accepting connections.
+     */
+    private Thread acceptor;
+
+    /**
+     * The owner of the socket, the only peer served.
+     */
+    private UserPrincipal owner;
+
+    /**
+     * A credential in the clear, as answered.
+     *
+     * @param instanceName     the instance name
+     * @param driverName       the driver name
+     * @param connectionString the connection string
+     * @param user             the user name
+     * @param password         the password, in the clear
+     */
+    public record Lookup(String instanceName, String driverName, String connectionString, String user,
+                         String password) {
+
+        /**
+         * Connects, calling the driver directly (see {@link DriverCache})
+         *
+         * @param properties the non-user, non-password attributes or properties of the connection
+         * @return the connection
+         * @throws SQLException when the connection fails
+         */
+        public Connection connect(Properties properties) throws SQLException {
+            Properties p = new Properties(properties);
+            p.setProperty("user", user);
+            if (password != null) p.setProperty("password", password);
+            Connection result = DriverCache.get(driverName, connectionString).connect(connectionString, p);
+            if (result == null) throw new SQLException("No suitable driver found for " + connectionString, "08001");
+            return result;
+        }
+    }
+
+    /**
+     * A request.
+     *
+     * @param instanceName the instance name
+     * @param role         the role
+     */
+    private record Request(String instanceName, String role) {
+    }
+
+    /**
+     * An answer, kept for as long as the credential it was decrypted from is current: as long as the store holds a
+     * credential of the same value, which for a binary store is decoded afresh by every lookup.
+     *
+     * @param credential the credential
+     * @param line       the answer
+     */
+    private record Answer(Credential credential, String line) {
+    }
+
+    /**
+     * Instantiates an agent
+     *
+     * @param socket the socket
+     * @param store  the store served
+     */
+    public CredentialAgent(Path socket, CredentialStore store) {
+        this.socket = socket;
+        this.store = store;
+    }
+
+    /**
+     * Gets the socket of the agent for the current user
+     *
+     * @return the socket
+     * @throws IOException when the application home can not be created
+     */
+    public static Path getSocket() throws IOException {
+        String configured = System.getProperty("ConnectionCredential.agent.socket");
+        if (configured != null) return Paths.get(configured);
+        return OperatingSystem.getApplicationHome("ConnectionCredential").resolve(".agent.sock");
+    }
+
+    /**
+     * Starts serving
+     *
+     * @throws IOException when an agent is already serving the socket, or for any IO error
+     */
+    public synchronized void start() throws IOException {
+        if (Files.exists(socket)) {
+            boolean serving;
+            try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+                serving = true;
+            } catch (IOException e) {
+                serving = false;
+            }
+            if (serving) throw new IOException("an agent is already serving " + socket);
+            // nobody is serving, the socket was left behind
+            Files.deleteIfExists(socket);
+        }
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        if (!posix && !hasPeerCredentials())
+            throw new IOException("neither the socket's permissions nor its peers can be checked, not serving " + socket);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            if (posix) bindPrivately();
+            else server.bind(UnixDomainSocketAddress.of(socket));
+        } catch (IOException | RuntimeException e) {
+            server.close();
+            server = null;
+            throw e;
+        }
+        owner = Files.getOwner(socket);
+        ServerSocketChannel listening = server;
+        acceptor = new Thread(() -> accept(listening), "ConnectionCredential-agent-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Binds the server channel to the socket, which is never open to other users: the socket is bound in a directory
+     * only the owner may enter, restricted to the owner, and only then linked in place
+     *
+     * @throws IOException when an agent started serving the socket meanwhile, or for any IO error
+     */
+    private void bindPrivately() throws IOException {
+        Path directory = Files.createTempDirectory(socket.toAbsolutePath().getParent(), ".agent",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        Path bound = directory.resolve("sock");
+        try {
+            server.bind(UnixDomainSocketAddress.of(bound));
+            Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+            Files.createLink(socket, bound);
+        } finally {
+            Files.deleteIfExists(bound);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Determines if the platform reports the peer of a connection to a Unix domain socket
+     *
+     * @return an indicator denoting peer credentials are available
+     * @throws IOException for any IO error
+     */
+    private static boolean hasPeerCredentials() throws IOException {
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            return channel.supportedOptions().contains(ExtendedSocketOptions.SO_PEERCRED);
+        }
+    }
+
+    /**
+     * Waits until the agent is closed
+     *
+     * @throws InterruptedException when interrupted waiting
+     */
+    public void await() throws InterruptedException {
+        acceptor.join();
+    }
+
+    /**
+     * Stops serving and removes the socket
+     *
+     * @throws IOException for any IO error
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (server == null) return;
+        server.close();
+        handlers.shutdownNow();
+        Files.deleteIfExists(socket);
+        answers.clear();
+        server = null;
+    }
+
+    /**
+     * Accepts connections until closed
+     *
+     * @param listening the server channel
+     */
+    private void accept(ServerSocketChannel listening) {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = listening.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                return;
+            }
+            try {
+                handlers.execute(() -> serve(channel));
+            } catch (RejectedExecutionException e) {
+                // closed while accepting
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answers the requests of a connection, when its peer is the owner of the socket
+     *
+     * @param channel the connection
+     */
+    private void serve(SocketChannel channel) {
+        try (channel) {
+            if (!isOwner(channel)) return;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                    StandardCharsets.UTF_8));
+            Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel),
+                    StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(answer(line));
+                writer.write('\n');
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // the client went away
+        }
+    }
+
+    /**
+     * Determines if the peer of a connection is the owner of the socket
+     *
+     * @param channel the connection
+     * @return an indicator denoting the peer may be served
+     * @throws IOException for any IO error
+     */
+    private boolean isOwner(SocketChannel channel) throws IOException {
+        // without peer credentials, the permissions of the socket are the only check; start refuses to serve
+        // without either
+        if (!channel.supportedOptions().contains(ExtendedSocketOptions.SO_PEERCRED)) return true;
+        UnixDomainPrincipal peer = channel.getOption(ExtendedSocketOptions.SO_PEERCRED);
+        return peer != null && (owner.equals(peer.user()) || owner.getName().equals(peer.user().getName()));
+    }
+
+    /**
+     * Answers a request
+     *
+     * @param line the request
+     * @return the answer
+     * @throws IOException for any IO error reading the store
+     */
+    String answer(String line) throws IOException {
+        Request request;
+        try {
+            request = GSON.fromJson(line, Request.class);
+        } catch (JsonParseException e) {
+            return "null";
+        }
+        if (request == null || request.instanceName() == null) return "null";
+        CredentialKey key = new CredentialKey(request.instanceName(),
+                request.role() == null ? OperatingSystem.getUser() : request.role());
+        Credential credential = store.lookup(key.instanceName(), key.role());
+        if (credential == null) {
+            answers.remove(key);
+            return "null";
+        }
+        Answer answer = answers.get(key);
+        if (answer == null || !isSame(answer.credential(), credential)) {
+            answer = new Answer(credential, GSON.toJson(toLookup(credential)));
+            answers.put(key, answer);
+        }
+        return answer.line();
+    }
+
+    /**
+     * Determines if two credentials of the same instance name and role answer the same
+     *
+     * @param answered   the credential answered
+     * @param credential the credential in the store
+     * @return an indicator denoting the answer is current
+     */
+    private static boolean isSame(Credential answered, Credential credential) {
+        return answered == credential || Objects.equals(answered.getConnectionString(), credential.getConnectionString())
+                && Objects.equals(answered.getDriverName(), credential.getDriverName())
+                && Objects.equals(answered.getEncrypted(), credential.getEncrypted());
+    }
+
+    /**
+     * Looks up the credential for the user's role in an instance name, from the agent when it is running and from
+     * the store otherwise
+     *
+     * @param instanceName the instance name, representing the application or operational name of the database
+     * @param role         the user's role
+     * @return the credential in the clear, null when not found
+     * @throws IOException for any IO error reading the store
+     */
+    public static Lookup lookup(String instanceName, String role) throws IOException {
+        return lookup(getSocket(), instanceName, role);
+    }
+
+    /**
+     * Looks up a credential, from the agent serving a socket when it is running and from the store otherwise
+     *
+     * @param socket       the socket
+     * @param instanceName the instance name
+     * @param role         the role, null for the current user
+     * @return the credential in the clear, null when not found
+     * @throws IOException for any IO error reading the store
+     */
+    static Lookup lookup(Path socket, String instanceName, String role) throws IOException {
+        if (Files.exists(socket)) {
+            try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+                Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+                writer.write(GSON.toJson(new Request(instanceName, role)));
+                writer.write('\n');
+                writer.flush();
+                String line = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                        StandardCharsets.UTF_8)).readLine();
+                if (line != null) return GSON.fromJson(line, Lookup.class);
+            } catch (IOException | JsonParseException e) {
+                // the agent is not running, or went away
+            }
+        }
+        // a single lookup: no shared snapshot of every credential is built
+        Credential credential = CredentialStore.getDefault().read(instanceName)
+                .get(instanceName, role == null ? OperatingSystem.getUser() : role);
+        return credential == null ? null : toLookup(credential);
+    }
+
+    /**
+     * Decrypts a credential
+     *
+     * @param credential the credential
+     * @return the credential in the clear
+     */
+    private static Lookup toLookup(Credential credential) {
+        return new Lookup(credential.getInstanceName(), credential.getDriverName(), credential.getConnectionString(),
+                credential.getUser(), credential.getCred());
+    }
+
+    /**
+     * Gets the connection for the user's role in an instance name, looking the credential up from the agent when
+     * it is running and from the store otherwise
+     *
+     * @param instanceName the instance name, representing the application or operational name of the database
+     * @param role         the user's role
+     * @param properties   connection properties (other than user, password)
+     * @return the connection
+     * @throws IOException  when there is no credential, or for any IO error
+     * @throws SQLException when the connection fails
+     */
+    public static Connection getConnection(String instanceName, String role, Properties properties)
+            throws IOException, SQLException {
+        Lookup lookup = lookup(instanceName, role);
+        if (lookup == null) throw new IOException("credentials for " + instanceName + " and " + role + " not found");
+        return lookup.connect(properties);
+    }
+}
@@ -0,0 +1,285 @@
+package net.wf0b.code;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The journal of changes to the credentials file, <code>.credentials.journal</code> beside it.
+ * <p>Each change (a credential added or updated, or a credential removed) is appended as one line of JSON, so the
+ * cost of a change depends on the size of the change and not the size of the store. The first line records the
+ * state of the credentials file the journal applies to; once that file has been replaced, by a compaction or any
+ * other writer, the journal is stale and is ignored.</p>
+ */
+class CredentialJournal {
+
+    /**
+     * The serializer of journal lines.
+     */
+    private static final Gson GSON = new Gson();
+
+    /**
+     * The credentials file the journal applies to.
+     */
+    private final Path base;
+
+    /**
+     * The journal file.
+     */
+    private final Path path;
+
+    /**
+     * The first line of the journal.
+     */
+    private static final class Header {
+
+        /**
+         * The state of the credentials file the journal applies to.
+         */
+        private String base;
+    }
+
+    /**
+     * A change, one line of the journal.
+     */
+    static final class Change {
+
+        /**
+         * The credential added or updated, null for a removal.
+         */
+        private Credential credential;
+
+        /**
+         * The instance name of the credential removed.
+         */
+        private String instanceName;
+
+        /**
+         * The user name of the credential removed.
+         */
+        private String user;
+
+        /**
+         * Creates the change adding or updating a credential
+         *
+         * @param credential the credential
+         * @return the change
+         */
+        static Change put(Credential credential) {
+            Change change = new Change();
+            change.credential = credential;
+            return change;
+        }
+
+        /**
+         * Creates the change removing a credential
+         *
+         * @param instanceName the instance name
+         * @param user         the user name the credential was stored under
+         * @return the change
+         */
+        static Change remove(String instanceName, String user) {
+            Change change = new Change();
+            change.instanceName = instanceName;
+            change.user = user;
+            return change;
+        }
+
+        /**
+         * Gets the credential the change leaves; a removal leaves an inactive credential
+         *
+         * @return the credential
+         */
+        Credential getCredential() {
+            if (credential != null) return credential;
+            return new Credential(instanceName, null, null, user, null, false);
+        }
+    }
+
+    /**
+     * Instantiates the journal of a credentials file
+     *
+     * @param base the credentials file
+     */
+    CredentialJournal(Path base) {
+        this.base = base;
+        this.path = base.resolveSibling(base.getFileName() + ".journal");
+    }
+
+    /**
+     * Gets path.
+     *
+     * @return value of path
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the size of the journal
+     *
+     * @return the size, in bytes
+     * @throws IOException for any IO error
+     */
+    long size() throws IOException {
+        // a compaction may delete the journal at any moment
+        try {
+            return Files.size(path);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the changes that apply to the credentials file
+     *
+     * @return the changes, in order; empty when there is no journal or it is stale
+     * @throws IOException for any IO error
+     */
+    List<Change> read() throws IOException {
+        List<Change> result = new ArrayList<>();
+        if (!Files.exists(path)) return result;
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line = reader.readLine();
+            if (line == null || !isCurrent(line)) return result;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    Change change = GSON.fromJson(line, Change.class);
+                    if (change != null) result.add(change);
+                } catch (JsonParseException e) {
+                    // a change torn by an interrupted write never happened; the changes after it did
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Appends a change, starting a new journal when there is none or it is stale
+     *
+     * @param change the change
+     * @throws IOException for any IO error
+     */
+    void append(Change change) throws IOException {
+        String line = GSON.toJson(change) + "\n";
+        if (isCurrent()) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long end = completeLines(channel);
+                channel.truncate(end);
+                ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+                while (bytes.hasRemaining()) channel.write(bytes, end + bytes.position());
+            }
+        } else {
+            Header header = new Header();
+            header.base = signature(base);
+            Files.writeString(path, GSON.toJson(header) + "\n" + line, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+    }
+
+    /**
+     * Finds the end of the last complete line, so a change torn by an interrupted write is cut off rather than
+     * joined by the next
+     *
+     * @param channel the journal
+     * @return the position after the last line separator; 0 when there is none
+     * @throws IOException for any IO error
+     */
+    private static long completeLines(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long end = channel.size();
+        while (end > 0) {
+            long start = Math.max(0, end - buffer.capacity());
+            buffer.clear().limit((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) break;
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') return start + i + 1;
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    /**
+     * Deletes the journal
+     *
+     * @throws IOException for any IO error
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Applies changes to credentials
+     *
+     * @param changes     the changes
+     * @param credentials the credentials
+     */
+    static void apply(List<Change> changes, CredentialRegistry credentials) {
+        for (Change change : changes) {
+            Credential credential = change.getCredential();
+            if (credential.isActive()) credentials.put(credential);
+            else credentials.remove(credential.getInstanceName(), credential.getAccount());
+        }
+    }
+
+    /**
+     * Determines if the journal exists and applies to the credentials file
+     *
+     * @return an indicator denoting the journal is current
+     * @throws IOException for any IO error
+     */
+    private boolean isCurrent() throws IOException {
+        if (!Files.exists(path)) return false;
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line = reader.readLine();
+            return line != null && isCurrent(line);
+        }
+    }
+
+    /**
+     * Determines if a header applies to the credentials file
+     *
+     * @param line the header line
+     * @return an indicator denoting the journal is current
+     * @throws IOException for any IO error
+     */
+    private boolean isCurrent(String line) throws IOException {
+        try {
+            Header header = GSON.fromJson(line, Header.class);
+            return header != null && signature(base).equals(header.base);
+        } catch (JsonParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the state of a file as a string: its modification time, size and file key
+     *
+     * @param file the file
+     * @return the state, "none" when the file does not exist
+     * @throws IOException for any IO error
+     */
+    private static String signature(Path file) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.lastModifiedTime().toString() + ":" + attributes.size() + ":" + attributes.fileKey();
+        } catch (NoSuchFileException e) {
+            return "none";
+        }
+    }
+}
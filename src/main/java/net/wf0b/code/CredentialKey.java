@@ -0,0 +1,38 @@
+package net.wf0b.code;
+
+/**
+ * The key of a credential: its instance name and the user name it was stored under (the role).
+ * <p>Unlike {@link Credential#getIdentifier()}, two keys are equal only when both the instance name and the role are
+ * equal, so unrelated instances never collide.</p>
+ *
+ * @param instanceName the instance name
+ * @param role         the user name the credential was stored under
+ */
+public record CredentialKey(String instanceName, String role) {
+
+    /**
+     * Gets the key of a credential
+     *
+     * @param credential the credential
+     * @return the key
+     */
+    public static CredentialKey of(Credential credential) {
+        return new CredentialKey(credential.getInstanceName(), credential.getAccount());
+    }
+
+    /**
+     * Computes the identifier of an instance name and role, equal to
+     * <code>(instanceName + ":" + role).hashCode()</code>, without building the string
+     *
+     * @param instanceName the instance name
+     * @param role         the user name the credential was stored under
+     * @return the identifier
+     */
+    public static int hash(String instanceName, String role) {
+        int result = instanceName.hashCode() * 31 + ':';
+        int length = role.length();
+        int power = 1;
+        for (int i = 0; i < length; i++) power *= 31;
+        return result * power + role.hashCode();
+    }
+}
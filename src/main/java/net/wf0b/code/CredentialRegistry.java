@@ -0,0 +1,174 @@
+package net.wf0b.code;
+
+import java.sql.Connection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of credentials keyed by {@link CredentialKey}.
+ * <p>Where {@link Credentials} is a synchronized table keyed by the 32-bit hash of instance name and role, the registry
+ * is a concurrent map keyed by the full instance name and role: lookups take no lock, and unrelated instances whose
+ * names hash alike do not collide. Lookups by instance name and role go through a second index by instance name, so
+ * they allocate nothing. A registry is built from the {@link Credentials} read from the existing files.</p>
+ */
+public class CredentialRegistry {
+
+    /**
+     * The credentials, by key.
+     */
+    private final ConcurrentHashMap<CredentialKey, Credential> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The credentials, by instance name and then role.
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Credential>> index = new ConcurrentHashMap<>();
+
+    /**
+     * Instantiates an empty registry
+     */
+    public CredentialRegistry() {
+    }
+
+    /**
+     * Instantiates a registry of credentials
+     *
+     * @param credentials the credentials
+     */
+    public CredentialRegistry(Collection<Credential> credentials) {
+        for (Credential credential : credentials) put(credential);
+    }
+
+    /**
+     * Instantiates a registry of credentials read from the file
+     *
+     * @param credentials the credentials
+     */
+    public CredentialRegistry(Credentials credentials) {
+        this(credentials.values());
+    }
+
+    /**
+     * Gets the Credential on the basis of the instance name, for the current user
+     *
+     * @param instanceName this instance name
+     * @return this Credential, null when not found
+     */
+    public Credential get(String instanceName) {
+        return get(instanceName, OperatingSystem.getUser());
+    }
+
+    /**
+     * Gets the Credential on the basis of the instance name and role
+     *
+     * @param instanceName this instance name
+     * @param role         this role
+     * @return the Credential, null when not found
+     */
+    public Credential get(String instanceName, String role) {
+        Map<String, Credential> roles = index.get(instanceName);
+        return roles == null ? null : roles.get(role);
+    }
+
+    /**
+     * Gets the Credential on the basis of its key
+     *
+     * @param key the key
+     * @return the Credential, null when not found
+     */
+    public Credential get(CredentialKey key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Determines if a credential is registered for an instance name and role
+     *
+     * @param instanceName the instance name
+     * @param role         the role
+     * @return an indicator denoting the credential is registered
+     */
+    public boolean containsKey(String instanceName, String role) {
+        return get(instanceName, role) != null;
+    }
+
+    /**
+     * Registers a credential, replacing any registered for the same instance name and role
+     *
+     * @param credential the credential
+     * @return the credential replaced, null when none
+     */
+    public Credential put(Credential credential) {
+        CredentialKey key = CredentialKey.of(credential);
+        Credential[] result = new Credential[1];
+        // both maps change under the index's lock for the instance name, so a removal can not drop the roles between
+        index.compute(key.instanceName(), (k, roles) -> {
+            if (roles == null) roles = new ConcurrentHashMap<>();
+            roles.put(key.role(), credential);
+            result[0] = entries.put(key, credential);
+            return roles;
+        });
+        return result[0];
+    }
+
+    /**
+     * Removes the credential for an instance name and role
+     *
+     * @param instanceName the instance name
+     * @param role         the role
+     * @return the credential removed, null when none
+     */
+    public Credential remove(String instanceName, String role) {
+        Credential[] result = new Credential[1];
+        index.compute(instanceName, (k, roles) -> {
+            result[0] = entries.remove(new CredentialKey(instanceName, role));
+            if (roles == null) return null;
+            roles.remove(role);
+            return roles.isEmpty() ? null : roles;
+        });
+        return result[0];
+    }
+
+    /**
+     * Gets the number of credentials
+     *
+     * @return the number of credentials
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the credentials, by key
+     *
+     * @return an unmodifiable view of the credentials
+     */
+    public Map<CredentialKey, Credential> asMap() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Gets the credentials in the form written to the file
+     *
+     * @return the credentials
+     */
+    public Credentials toCredentials() {
+        Credentials result = new Credentials();
+        for (Credential credential : entries.values()) result.put(credential.getIdentifier(), credential);
+        return result;
+    }
+
+    /**
+     * Gets the connection for the user's role in an instance name
+     *
+     * @param instanceName the instance name, representing the application or operational name of the database
+     * @param role         the user's role
+     * @param properties   connection properties (other than user, password)
+     * @return the connection, null when there is no credential
+     */
+    public Connection getConnection(String instanceName, String role, Properties properties) {
+        Credential credential = get(instanceName, role);
+        return credential == null ? null : credential.getConnection(properties);
+    }
+}
@@ -0,0 +1,1056 @@
+package net.wf0b.code;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * The store of credentials, the <code>.credentials</code> file in the application home.
+ * <p>Besides reading and writing the file, the store keeps a parsed snapshot for lookups. The snapshot is loaded
+ * once and reloaded only when the file's modification time, size or identity has changed; the file is checked at
+ * most once per refresh interval (system property <code>ConnectionCredential.store.refresh</code>, in milliseconds,
+ * default 1000). Changes made by the ConnectionCredential command are therefore seen by a running application
+ * within the refresh interval.</p>
+ * <p>The file is either JSON or the binary form of {@link BinaryCredentialFile}, as told by its magic bytes. A new file
+ * is written as JSON unless the system property <code>ConnectionCredential.store.format</code> is
+ * <code>binary</code>; an existing file keeps its form. A binary snapshot is a memory mapping, and a lookup decodes only
+ * the matching record.</p>
+ * <p>Single changes, {@link #put(Credential)} and {@link #remove(String, String)}, are appended to a
+ * {@link CredentialJournal} rather than rewriting the file. Once the journal passes a size threshold (system property
+ * <code>ConnectionCredential.store.journal</code>, in bytes, default 65536) it is compacted into the file in the
+ * background.</p>
+ * <p>Several processes may share the store. Writers take a lock on <code>.credentials.lock</code>, which also holds
+ * a version number made odd as a write starts and even again once it is done; the file is always replaced by an atomic
+ * move, and the journal is only appended to, so readers take no lock and never see a partial file. A reader finding
+ * the version odd, or changed by the end of its read, reads again. {@link #update(Update)} decides a change without
+ * the lock and applies it only when the version is unchanged, retrying otherwise.</p>
+ */
+public class CredentialStore {
+
+    /**
+     * The forms of the file.
+     */
+    public enum Format {
+        /**
+         * Pretty-printed JSON
+         */
+        JSON,
+
+        /**
+         * The binary form of {@link BinaryCredentialFile}
+         */
+        BINARY
+    }
+
+    /**
+     * The serializer of the JSON file, reading and writing each credential through a {@link CredentialAdapter}.
+     */
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Credential.class, new CredentialAdapter(null)).setPrettyPrinting().create();
+
+    /**
+     * The store for the current user, see {@link #getDefault()}.
+     */
+    private static CredentialStore defaultStore;
+
+    /**
+     * The user home the default store was resolved for.
+     */
+    private static String defaultHome;
+
+    /**
+     * The path to the file.
+     */
+    private final Path path;
+
+    /**
+     * The milliseconds between checks of the file for changes.
+     */
+    private final long refreshInterval;
+
+    /**
+     * The parsed credentials, with the state of the file they were parsed from.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * The journal of changes to the file.
+     */
+    private final CredentialJournal journal;
+
+    /**
+     * The lock file, holding the version of the store.
+     */
+    private final Path lockPath;
+
+    /**
+     * The writers' locks within this process, by lock file.
+     */
+    private static final ConcurrentHashMap<Path, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * The journal size, in bytes, past which the journal is compacted into the file.
+     */
+    private final long journalThreshold = Long.getLong("ConnectionCredential.store.journal", 65536L);
+
+    /**
+     * The compaction last started.
+     */
+    private volatile CompletableFuture<Void> compaction = CompletableFuture.completedFuture(null);
+
+    /**
+     * An indicator denoting a compaction is running and will check the journal again before it stops.
+     */
+    private boolean compacting = false;
+
+    /**
+     * The thread compacting journals.
+     */
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "CredentialStore-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The parsed credentials, with the state of the file they were parsed from.
+     */
+    private static final class Snapshot {
+
+        /**
+         * The mapped file, null for JSON.
+         */
+        private final BinaryCredentialFile binary;
+
+        /**
+         * The state of the file, null when the file does not exist.
+         */
+        private final Object state;
+
+        /**
+         * The time the file was last checked, in nanoseconds.
+         */
+        private final long checked;
+
+        /**
+         * The changes in the journal, removals as inactive credentials, applied over a binary file.
+         */
+        private final CredentialRegistry overlay;
+
+        /**
+         * The credentials; decoded on first use for a binary file.
+         */
+        private volatile CredentialRegistry registry;
+
+        /**
+         * The credentials in the form of the file; built on first use.
+         */
+        private volatile Credentials credentials;
+
+        /**
+         * The replicas, by the key of their primary; built on first use.
+         */
+        private volatile Map<CredentialKey, List<Credential>> replicas;
+
+        /**
+         * Instantiates a snapshot
+         *
+         * @param registry the credentials, null for a binary file
+         * @param binary   the mapped file, null for JSON
+         * @param overlay  the changes in the journal, applied over a binary file
+         * @param state    the state of the file, null when the file does not exist
+         * @param checked  the time the file was last checked, in nanoseconds
+         */
+        private Snapshot(CredentialRegistry registry, BinaryCredentialFile binary, CredentialRegistry overlay,
+                         Object state, long checked) {
+            this.registry = registry;
+            this.binary = binary;
+            this.overlay = overlay;
+            this.state = state;
+            this.checked = checked;
+        }
+
+        /**
+         * Gets this snapshot as checked again, the file being unchanged
+         *
+         * @param now the time the file was checked, in nanoseconds
+         * @return the snapshot
+         */
+        private Snapshot checked(long now) {
+            Snapshot result = new Snapshot(registry, binary, overlay, state, now);
+            result.credentials = credentials;
+            result.replicas = replicas;
+            return result;
+        }
+
+        /**
+         * Gets the credentials, decoding a binary file on first use
+         *
+         * @return the credentials
+         */
+        private CredentialRegistry registry() {
+            CredentialRegistry result = registry;
+            if (result == null) {
+                result = new CredentialRegistry(binary.list());
+                for (Credential credential : overlay.asMap().values()) {
+                    if (credential.isActive()) result.put(credential);
+                    else result.remove(credential.getInstanceName(), credential.getAccount());
+                }
+                registry = result;
+            }
+            return result;
+        }
+
+        /**
+         * Gets the credentials in the form of the file
+         *
+         * @return the credentials
+         */
+        private Credentials credentials() {
+            Credentials result = credentials;
+            if (result == null) credentials = result = registry().toCredentials();
+            return result;
+        }
+
+        /**
+         * Gets the replicas of a primary, indexing them on first use
+         *
+         * @param instanceName the instance name of the primary
+         * @param role         the role
+         * @return the replicas
+         */
+        private List<Credential> replicas(String instanceName, String role) {
+            Map<CredentialKey, List<Credential>> result = replicas;
+            if (result == null) replicas = result = Credentials.replicas(registry().asMap().values());
+            return result.getOrDefault(new CredentialKey(instanceName, role), List.of());
+        }
+
+        /**
+         * Looks up a credential
+         *
+         * @param instanceName the instance name
+         * @param role         the user name the credential was stored under
+         * @return the credential, null when not found
+         */
+        private Credential get(String instanceName, String role) {
+            if (binary == null) return registry.get(instanceName, role);
+            Credential changed = overlay.get(instanceName, role);
+            if (changed != null) return changed.isActive() ? changed : null;
+            return binary.get(instanceName, role);
+        }
+    }
+
+    /**
+     * The state of the file and its journal, used to detect changes.
+     *
+     * @param file    the attributes of the file, null when it does not exist
+     * @param journal the attributes of the journal, null when it does not exist
+     */
+    private record State(Attributes file, Attributes journal) {
+    }
+
+    /**
+     * The attributes of a file that change when it is written.
+     *
+     * @param modified the modification time, in milliseconds
+     * @param size     the size
+     * @param key      the file key (identity), when the file system supports it
+     */
+    private record Attributes(long modified, long size, Object key) {
+    }
+
+    /**
+     * Instantiates a store with the refresh interval from the system properties
+     *
+     * @param path the path to the file
+     */
+    public CredentialStore(Path path) {
+        this(path, Long.getLong("ConnectionCredential.store.refresh", 1000L));
+    }
+
+    /**
+     * Instantiates a store
+     *
+     * @param path            the path to the file
+     * @param refreshInterval the milliseconds between checks of the file for changes
+     */
+    public CredentialStore(Path path, long refreshInterval) {
+        this.path = path;
+        this.refreshInterval = refreshInterval;
+        this.journal = new CredentialJournal(path);
+        this.lockPath = path.resolveSibling(path.getFileName() + ".lock");
+    }
+
+    /**
+     * Gets the store for the current user, in the ConnectionCredential application home
+     *
+     * @return the store
+     * @throws IOException when the application home can not be created
+     */
+    public static synchronized CredentialStore getDefault() throws IOException {
+        String home = System.getProperty("user.home");
+        if (defaultStore == null || !home.equals(defaultHome)) {
+            defaultStore = new CredentialStore(Paths.get(OperatingSystem.getApplicationHome("ConnectionCredential").toString(), ".credentials"));
+            defaultHome = home;
+        }
+        return defaultStore;
+    }
+
+    /**
+     * Gets path.
+     *
+     * @return value of path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the form of the file
+     *
+     * @return the form of the file; for a new file, the form it will be written in
+     * @throws IOException for any IO error
+     */
+    public Format getFormat() throws IOException {
+        if (Files.exists(path)) return BinaryCredentialFile.isBinary(path) ? Format.BINARY : Format.JSON;
+        return "binary".equalsIgnoreCase(System.getProperty("ConnectionCredential.store.format")) ? Format.BINARY : Format.JSON;
+    }
+
+    /**
+     * Reads the credentials from the file; the result is the caller's own to change
+     * <p>Reading takes no lock. When a writer changes the store during the read, as told by the version, the read is
+     * repeated, so the result is never a mix of two versions.</p>
+     *
+     * @return the credentials, empty when the file does not exist
+     * @throws IOException for any IO error
+     */
+    public Credentials read() throws IOException {
+        return readRegistry().toCredentials();
+    }
+
+    /**
+     * Reads only the credentials of an instance name from the file; the result is the caller's own to change
+     * <p>For a single lookup without the shared snapshot, as by a short-lived tool with no agent running (see
+     * {@link CredentialAgent#lookup(String, String)}): the credentials of other instance names in a JSON file are
+     * skipped as they are read, without being built. Reading is repeated as for {@link #read()}.</p>
+     *
+     * @param instanceName the instance name
+     * @return the credentials of the instance name, empty when there are none
+     * @throws IOException for any IO error
+     */
+    public Credentials read(String instanceName) throws IOException {
+        return readStable(instanceName::equals).toCredentials();
+    }
+
+    /**
+     * Reads the credentials from the file into a registry; the result is the caller's own to change
+     * <p>Reading takes no lock. When a writer changes the store during the read, as told by the version, the read is
+     * repeated, so the result is never a mix of two versions.</p>
+     *
+     * @return the credentials, empty when the file does not exist
+     * @throws IOException for any IO error
+     */
+    public CredentialRegistry readRegistry() throws IOException {
+        return readStable(null);
+    }
+
+    /**
+     * Reads the credentials from the file into a registry, as of one version
+     * <p>The read is repeated until the version is the same, and even, before and after it. While the version is
+     * odd a writer is replacing the file or appending to the journal, or was stopped doing so; then the read waits
+     * for the writer's lock, under which the files are whole.</p>
+     *
+     * @param instances the filter of instance names read; null for every instance name
+     * @return the credentials
+     * @throws IOException for any IO error
+     */
+    private CredentialRegistry readStable(Predicate<String> instances) throws IOException {
+        while (true) {
+            long version = getVersion();
+            if ((version & 1) != 0) {
+                try (Lock lock = lock()) {
+                    return readFiles(instances);
+                }
+            }
+            CredentialRegistry result = readFiles(instances);
+            if (getVersion() == version) return result;
+        }
+    }
+
+    /**
+     * Gets the version of the store, increased as every write starts and again once it is done: odd while a write is
+     * in progress
+     *
+     * @return the version, 0 for a store never written
+     * @throws IOException for any IO error
+     */
+    public long getVersion() throws IOException {
+        try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.READ)) {
+            return readVersion(channel);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the version from the lock file
+     *
+     * @param channel the lock file
+     * @return the version, 0 for a store never written
+     * @throws IOException for any IO error
+     */
+    private static long readVersion(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) return 0;
+        }
+        return buffer.getLong(0);
+    }
+
+    /**
+     * Writes the active credentials to the file, in the form of the file
+     *
+     * @param credentials the credentials
+     * @throws IOException for any IO error
+     */
+    public void write(Credentials credentials) throws IOException {
+        write(credentials, getFormat());
+    }
+
+    /**
+     * Writes the active credentials to the file, replacing the file and its journal
+     *
+     * @param credentials the credentials
+     * @param format      the form to write
+     * @throws IOException for any IO error
+     */
+    public void write(Credentials credentials, Format format) throws IOException {
+        try (Lock lock = lock()) {
+            lock.begin();
+            writeFiles(credentials.values(), format);
+            lock.advance();
+        }
+    }
+
+    /**
+     * Adds or updates a credential, appending the change to the journal
+     *
+     * @param credential the credential
+     * @throws IOException for any IO error
+     */
+    public void put(Credential credential) throws IOException {
+        append(List.of(credential));
+    }
+
+    /**
+     * Removes a credential, appending the change to the journal
+     *
+     * @param instanceName the instance name
+     * @param user         the user name the credential was stored under
+     * @throws IOException for any IO error
+     */
+    public void remove(String instanceName, String user) throws IOException {
+        append(List.of(new Credential(instanceName, null, null, user, null, false)));
+    }
+
+    /**
+     * A change decided on the credentials as read.
+     */
+    @FunctionalInterface
+    public interface Update {
+        /**
+         * Decides the change
+         *
+         * @param credentials the credentials as read
+         * @return the credentials added or updated, and as inactive the credentials removed
+         */
+        List<Credential> apply(Credentials credentials);
+    }
+
+    /**
+     * Changes the store optimistically: reads the credentials and decides the change without a lock, then appends
+     * the change only when no other writer has changed the store in the meantime; otherwise reads and decides again
+     * (system property <code>ConnectionCredential.store.retries</code>, default 10)
+     *
+     * @param update the change
+     * @throws IOException when the store keeps changing, or for any IO error
+     */
+    public void update(Update update) throws IOException {
+        update(update, false);
+        compactIfNeeded();
+    }
+
+    /**
+     * Changes the store optimistically, as {@link #update(Update)} does, but replaces the file once with the
+     * changes applied rather than appending them to the journal; suited to changing many credentials at once
+     *
+     * @param update the change
+     * @throws IOException when the store keeps changing, or for any IO error
+     */
+    public void rewrite(Update update) throws IOException {
+        update(update, true);
+    }
+
+    /**
+     * Changes the store optimistically
+     *
+     * @param update  the change
+     * @param rewrite an indicator denoting the file is replaced rather than the journal appended
+     * @throws IOException when the store keeps changing, or for any IO error
+     */
+    private void update(Update update, boolean rewrite) throws IOException {
+        int retries = Integer.getInteger("ConnectionCredential.store.retries", 10);
+        for (int attempt = 0; ; attempt++) {
+            long version = getVersion();
+            CredentialRegistry registry = readFiles(null);
+            List<Credential> changes = update.apply(registry.toCredentials());
+            if (changes.isEmpty()) return;
+            try (Lock lock = lock()) {
+                if (lock.version() == version) {
+                    if (rewrite) {
+                        lock.begin();
+                        for (Credential credential : changes) {
+                            if (credential.isActive()) registry.put(credential);
+                            else registry.remove(credential.getInstanceName(), credential.getAccount());
+                        }
+                        writeFiles(registry.asMap().values(), getFormat());
+                        lock.advance();
+                    } else {
+                        appendFiles(changes, lock);
+                    }
+                    return;
+                }
+            }
+            if (attempt >= retries) throw new IOException("credentials changed by another writer, update abandoned");
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(1, 10 << Math.min(attempt, 6)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted retrying an update");
+            }
+        }
+    }
+
+    /**
+     * An action on each credential read.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * Acts on a credential
+         *
+         * @param credential the credential
+         * @throws IOException for any IO error
+         */
+        void accept(Credential credential) throws IOException;
+    }
+
+    /**
+     * Passes each credential matching a filter to an action as it is read from the file, without holding the
+     * credentials in memory; the passwords stay encrypted
+     * <p>The changes in the journal are read first and held. A credential of the file they change is passed over, and
+     * the credentials they add or update are passed last. Reading takes no lock and, unlike {@link #read()}, is not
+     * repeated when a writer changes the store meanwhile; the file read is the one in place when it was opened.</p>
+     *
+     * @param filter the filter
+     * @param action the action
+     * @throws IOException for any IO error, or when the action fails
+     */
+    public void scan(Predicate<Credential> filter, Visitor action) throws IOException {
+        CredentialRegistry overlay = new CredentialRegistry();
+        for (CredentialJournal.Change change : journal.read()) overlay.put(change.getCredential());
+        Visitor unchanged = credential -> {
+            if (credential.isActive() && overlay.get(credential.getInstanceName(), credential.getAccount()) == null
+                    && filter.test(credential)) action.accept(credential);
+        };
+        if (Files.exists(path)) {
+            if (BinaryCredentialFile.isBinary(path)) BinaryCredentialFile.open(path).forEach(unchanged);
+            else scanJson(path, unchanged);
+        }
+        for (Credential credential : overlay.asMap().values()) {
+            if (credential.isActive() && filter.test(credential)) action.accept(credential);
+        }
+    }
+
+    /**
+     * Compacts the journal into the file
+     *
+     * @throws IOException for any IO error
+     */
+    public void compact() throws IOException {
+        try (Lock lock = lock()) {
+            if (journal.size() > 0) {
+                lock.begin();
+                writeFiles(readFiles(null).asMap().values(), getFormat());
+                lock.advance();
+            }
+        }
+    }
+
+    /**
+     * Waits for a compaction started in the background to finish
+     */
+    public void awaitCompaction() {
+        compaction.join();
+    }
+
+    /**
+     * Appends changes to the journal
+     *
+     * @param changes the credentials added or updated, and as inactive the credentials removed
+     * @throws IOException for any IO error
+     */
+    private void append(List<Credential> changes) throws IOException {
+        try (Lock lock = lock()) {
+            appendFiles(changes, lock);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Starts a compaction in the background when the journal has passed the threshold
+     *
+     * @throws IOException for any IO error
+     */
+    private synchronized void compactIfNeeded() throws IOException {
+        if (compacting || journal.size() <= journalThreshold) return;
+        compacting = true;
+        compaction = CompletableFuture.runAsync(() -> {
+            try {
+                // writers keep appending while the file is rewritten, leaving it to this compaction
+                do {
+                    compact();
+                } while (!isCompacted());
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace(System.err);
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        }, COMPACTOR);
+    }
+
+    /**
+     * Ends the running compaction unless the journal has passed the threshold again
+     * <p>Checked under the same monitor as {@link #compactIfNeeded()}, so a writer appending meanwhile either finds
+     * no compaction running and starts one, or is covered by this check.</p>
+     *
+     * @return an indicator denoting the compaction is over
+     * @throws IOException for any IO error
+     */
+    private synchronized boolean isCompacted() throws IOException {
+        if (journal.size() > journalThreshold) return false;
+        compacting = false;
+        return true;
+    }
+
+    /**
+     * Reads the file and applies its journal
+     *
+     * @param instances the filter of instance names read; null for every instance name
+     * @return the credentials
+     * @throws IOException for any IO error
+     */
+    private CredentialRegistry readFiles(Predicate<String> instances) throws IOException {
+        CredentialRegistry result;
+        if (!Files.exists(path)) result = new CredentialRegistry();
+        else if (BinaryCredentialFile.isBinary(path)) result = new CredentialRegistry(BinaryCredentialFile.open(path).list());
+        else result = new CredentialRegistry(readJson(path, instances));
+        CredentialJournal.apply(journal.read(), result);
+        if (instances != null) {
+            for (CredentialKey key : List.copyOf(result.asMap().keySet())) {
+                if (!instances.test(key.instanceName())) result.remove(key.instanceName(), key.role());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the file and discards its journal; the caller holds the lock
+     *
+     * @param credentials the credentials
+     * @param format      the form to write
+     * @throws IOException for any IO error
+     */
+    private void writeFiles(Collection<Credential> credentials, Format format) throws IOException {
+        List<Credential> c = new ArrayList<>();
+        for (Credential credential : credentials) {
+            if (credential.isActive()) c.add(credential);
+        }
+        // readers never lock, a running reader may have the file mapped, and a compaction may be interrupted, so
+        // replace the file rather than truncate it
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        if (format == Format.BINARY) BinaryCredentialFile.write(c, temp);
+        else writeJson(new CredentialRegistry(c).toCredentials(), temp);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal.delete();
+        snapshot = null;
+    }
+
+    /**
+     * Appends changes to the journal; the caller holds the lock
+     *
+     * @param changes the credentials added or updated, and as inactive the credentials removed
+     * @param lock    the lock
+     * @throws IOException for any IO error
+     */
+    private void appendFiles(List<Credential> changes, Lock lock) throws IOException {
+        lock.begin();
+        // the journal names the file it applies to, so there must be a file
+        if (!Files.exists(path)) writeFiles(List.of(), getFormat());
+        for (Credential credential : changes) {
+            if (credential.isActive()) journal.append(CredentialJournal.Change.put(credential));
+            else journal.append(CredentialJournal.Change.remove(credential.getInstanceName(), credential.getAccount()));
+        }
+        lock.advance();
+        snapshot = null;
+    }
+
+    /**
+     * Takes the writer's lock: a lock within this process and a lock on the lock file across processes
+     *
+     * @return the lock
+     * @throws IOException for any IO error
+     */
+    private Lock lock() throws IOException {
+        ReentrantLock local = LOCKS.computeIfAbsent(lockPath.toAbsolutePath().normalize(), p -> new ReentrantLock());
+        local.lock();
+        if (local.getHoldCount() > 1) return new Lock(local, null, null);
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // lock past the version, so that readers of the version are never blocked
+            return new Lock(local, channel, channel.lock(Long.BYTES, 1, false));
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) channel.close();
+            local.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * The writer's lock, holding the version of the store.
+     */
+    private final class Lock implements AutoCloseable {
+
+        /**
+         * The lock within this process.
+         */
+        private final ReentrantLock local;
+
+        /**
+         * The lock file, null when the lock is already held by this thread.
+         */
+        private final FileChannel channel;
+
+        /**
+         * The lock across processes, null when the lock is already held by this thread.
+         */
+        private final FileLock fileLock;
+
+        /**
+         * Instantiates the lock
+         *
+         * @param local    the lock within this process
+         * @param channel  the lock file
+         * @param fileLock the lock across processes
+         */
+        private Lock(ReentrantLock local, FileChannel channel, FileLock fileLock) {
+            this.local = local;
+            this.channel = channel;
+            this.fileLock = fileLock;
+        }
+
+        /**
+         * Gets the version of the store
+         *
+         * @return the version
+         * @throws IOException for any IO error
+         */
+        private long version() throws IOException {
+            return channel == null ? getVersion() : readVersion(channel);
+        }
+
+        /**
+         * Makes the version of the store odd, before a write
+         *
+         * @throws IOException for any IO error
+         */
+        private void begin() throws IOException {
+            long version = version();
+            if ((version & 1) == 0) write(version + 1);
+        }
+
+        /**
+         * Makes the version of the store even and past the version before the write, after a write
+         *
+         * @throws IOException for any IO error
+         */
+        private void advance() throws IOException {
+            // a write stopped short left the version odd; the next write goes past it
+            write((version() | 1) + 1);
+        }
+
+        /**
+         * Writes the version of the store
+         *
+         * @param version the version
+         * @throws IOException for any IO error
+         */
+        private void write(long version) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, version);
+            if (channel != null) {
+                while (buffer.hasRemaining()) channel.write(buffer, buffer.position());
+                return;
+            }
+            try (FileChannel out = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) out.write(buffer, buffer.position());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (fileLock != null) fileLock.release();
+                if (channel != null) channel.close();
+            } finally {
+                local.unlock();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the file in another form
+     *
+     * @param format the form to write
+     * @throws IOException for any IO error
+     */
+    public void convert(Format format) throws IOException {
+        write(read(), format);
+    }
+
+    /**
+     * Exports the credentials as JSON, whatever the form of the file
+     *
+     * @param target the path of the JSON file
+     * @throws IOException for any IO error
+     */
+    public void exportJson(Path target) throws IOException {
+        writeJson(read(), target);
+    }
+
+    /**
+     * Imports the credentials of a JSON file, replacing those in the store and keeping the form of the file
+     *
+     * @param source the path of the JSON file
+     * @throws IOException for any IO error
+     */
+    public void importJson(Path source) throws IOException {
+        write(readJson(source, null));
+    }
+
+    /**
+     * Looks up a credential in the shared snapshot
+     *
+     * @param instanceName the instance name
+     * @param role         the user name the credential was stored under
+     * @return the credential, null when not found
+     * @throws IOException for any IO error
+     */
+    public Credential lookup(String instanceName, String role) throws IOException {
+        return current().get(instanceName, role);
+    }
+
+    /**
+     * Gets the replicas of a primary in the shared snapshot (see {@link ReplicaRouter})
+     *
+     * @param instanceName the instance name of the primary
+     * @param role         the role
+     * @return the replicas, in no particular order but the same until the file changes
+     * @throws IOException for any IO error
+     */
+    public List<Credential> getReplicas(String instanceName, String role) throws IOException {
+        return current().replicas(instanceName, role);
+    }
+
+    /**
+     * Gets the shared registry of the credentials, reloading it when the file has changed
+     * <p>The registry is shared by every caller and must not be changed; use {@link #readRegistry()} to make
+     * changes.</p>
+     *
+     * @return the credentials
+     * @throws IOException for any IO error
+     */
+    public CredentialRegistry getRegistry() throws IOException {
+        return current().registry();
+    }
+
+    /**
+     * Gets the shared snapshot of the credentials, reloading it when the file has changed
+     * <p>The snapshot is shared by every caller and must not be changed; use {@link #read()} to make changes.</p>
+     *
+     * @return the credentials
+     * @throws IOException for any IO error
+     */
+    public Credentials getSnapshot() throws IOException {
+        return current().credentials();
+    }
+
+    /**
+     * Discards the snapshot, so the next lookup reloads the file
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * Gets the snapshot, checking the file when the refresh interval has passed
+     *
+     * @return the snapshot
+     * @throws IOException for any IO error
+     */
+    private Snapshot current() throws IOException {
+        Snapshot current = snapshot;
+        if (current != null && System.nanoTime() - current.checked < refreshInterval * 1_000_000L) return current;
+        return refresh();
+    }
+
+    /**
+     * Checks the file and reloads the snapshot when it has changed
+     *
+     * @return the snapshot
+     * @throws IOException for any IO error
+     */
+    private synchronized Snapshot refresh() throws IOException {
+        Snapshot current = snapshot;
+        long now = System.nanoTime();
+        if (current != null && now - current.checked < refreshInterval * 1_000_000L) return current;
+        State state = state();
+        if (current != null && Objects.equals(current.state, state)) {
+            snapshot = current.checked(now);
+        } else if (state.file() != null && BinaryCredentialFile.isBinary(path)) {
+            CredentialRegistry overlay = new CredentialRegistry();
+            for (CredentialJournal.Change change : journal.read()) overlay.put(change.getCredential());
+            snapshot = new Snapshot(null, BinaryCredentialFile.open(path), overlay, state, now);
+        } else {
+            snapshot = new Snapshot(readRegistry(), null, null, state, now);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads credentials from a JSON file, streaming it a credential at a time (see {@link CredentialAdapter})
+     *
+     * @param source    the path of the JSON file
+     * @param instances the filter of instance names read; null for every instance name
+     * @return the credentials
+     * @throws IOException for any IO error
+     */
+    private static Credentials readJson(Path source, Predicate<String> instances) throws IOException {
+        Credentials result = new Credentials();
+        TypeAdapter<Credential> adapter = instances == null ? GSON.getAdapter(Credential.class)
+                : new CredentialAdapter(instances);
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(source))) {
+            // an empty file, like null, holds no credentials
+            if (Files.size(source) == 0 || reader.peek() == JsonToken.NULL) return result;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String identifier = reader.nextName();
+                Credential credential = adapter.read(reader);
+                if (credential != null) result.put(Integer.valueOf(identifier), credential);
+            }
+            reader.endObject();
+        }
+        return result;
+    }
+
+    /**
+     * Reads credentials from a JSON file one at a time, passing each to an action
+     *
+     * @param source the path of the JSON file
+     * @param action the action
+     * @throws IOException for any IO error, or when the action fails
+     */
+    private static void scanJson(Path source, Visitor action) throws IOException {
+        TypeAdapter<Credential> adapter = GSON.getAdapter(Credential.class);
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(source))) {
+            // an empty file, like null, holds no credentials
+            if (Files.size(source) == 0 || reader.peek() == JsonToken.NULL) return;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                reader.nextName();
+                Credential credential = adapter.read(reader);
+                if (credential != null) action.accept(credential);
+            }
+            reader.endObject();
+        }
+    }
+
+    /**
+     * Writes credentials to a JSON file
+     *
+     * @param credentials the credentials
+     * @param target      the path of the JSON file
+     * @throws IOException for any IO error
+     */
+    private static void writeJson(Credentials credentials, Path target) throws IOException {
+        String json = GSON.toJson(credentials);
+        try (BufferedWriter writer = Files.newBufferedWriter(target)) {
+            writer.write(json);
+        }
+    }
+
+    /**
+     * Gets the state of the file and its journal
+     *
+     * @return the state
+     * @throws IOException for any IO error
+     */
+    private State state() throws IOException {
+        return new State(attributes(path), attributes(journal.getPath()));
+    }
+
+    /**
+     * Gets the attributes of a file that change when it is written
+     *
+     * @param file the file
+     * @return the attributes, null when the file does not exist
+     * @throws IOException for any IO error
+     */
+    private static Attributes attributes(Path file) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new Attributes(attributes.lastModifiedTime().toMillis(), attributes.size(), attributes.fileKey());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
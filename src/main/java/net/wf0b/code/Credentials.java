@@ -1,11 +1,22 @@
 package net.wf0b.code;
 
+import java.io.IOException;
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The container of credentials.
+ * <p>Credentials are keyed by {@link Credential#getIdentifier()}, the form written to the file. For lookups, see the
+ * lock-free, collision-free {@link CredentialRegistry}.</p>
  */
 public class Credentials extends Hashtable<Integer, Credential> {
 
@@ -27,7 +38,7 @@ public class Credentials extends Hashtable<Integer, Credential> {
      * @return the Credential
      */
     public Credential get(String instanceName, String role) {
-        return get((instanceName + ":" + role).hashCode());
+        return get(CredentialKey.hash(instanceName, role));
     }
 
     /**
@@ -48,7 +59,7 @@ public class Credentials extends Hashtable<Integer, Credential> {
      * @return the Credential just removed
      */
     public Credential remove(String instanceName, String role) {
-        return remove((instanceName + ":" + role).hashCode());
+        return remove(CredentialKey.hash(instanceName, role));
     }
 
     /**
@@ -69,7 +80,7 @@ public class Credentials extends Hashtable<Integer, Credential> {
      * @return an indicator denoting the instance name for the user's role exists
      */
     public boolean containsKey(String instanceName, String role) {
-        return contains((instanceName + ":" + role).hashCode());
+        return containsKey(CredentialKey.hash(instanceName, role));
     }
 
     /**
@@ -92,7 +103,80 @@ public class Credentials extends Hashtable<Integer, Credential> {
      * @return the connection
      */
     protected Connection getConnection(String instanceName, String role, Properties properties) {
-        return get(instanceName + ":" + role).getConnection(properties);
+        return get(instanceName, role).getConnection(properties);
+    }
+
+    /**
+     * Gets the replicas of the primary for the user's role in an instance name
+     * <p>The credentials are searched on every call; the store's shared snapshot keeps them indexed instead (see
+     * {@link CredentialStore#getReplicas(String, String)}).</p>
+     *
+     * @param instanceName the instance name of the primary
+     * @param role         the user's role
+     * @return the replicas, in no particular order but the same until the credentials change
+     */
+    protected List<Credential> getReplicas(String instanceName, String role) {
+        List<Credential> copy;
+        synchronized (this) {
+            copy = new ArrayList<>(values());
+        }
+        return replicas(copy).getOrDefault(new CredentialKey(instanceName, role), List.of());
+    }
+
+    /**
+     * Indexes the replicas among credentials by the key of their primary
+     *
+     * @param credentials the credentials
+     * @return the active replicas, by the instance name and role of their primary
+     */
+    static Map<CredentialKey, List<Credential>> replicas(Collection<Credential> credentials) {
+        Map<CredentialKey, List<Credential>> result = new HashMap<>();
+        for (Credential credential : credentials) {
+            if (credential.getReplicaOf() != null && credential.isActive())
+                result.computeIfAbsent(new CredentialKey(credential.getReplicaOf(), credential.getAccount()),
+                        k -> new ArrayList<>()).add(credential);
+        }
+        return result;
+    }
+
+    /**
+     * Gets a connection for the user's role in an instance name, routed by intent (see {@link ReplicaRouter}): a
+     * write to the primary, a read to one of its replicas
+     *
+     * @param instanceName the instance name of the primary, representing the application or operational name of the
+     *                     database
+     * @param role         the user's role
+     * @param intent       what the connection is for
+     * @param properties   connection properties (other than user, password)
+     * @return the connection, read-only for a read; null when there is no credential or the connection fails
+     */
+    protected Connection getConnection(String instanceName, String role, Intent intent, Properties properties) {
+        Connection result = null;
+        Credential primary = get(instanceName, role);
+        if (primary == null) return null;
+        try {
+            result = ReplicaRouter.route(primary, getReplicas(instanceName, role), intent, properties);
+        } catch (SQLException sqle) {
+            sqle.printStackTrace();
+        }
+        return result;
+    }
+
+    /**
+     * Gets the connection for the user's role in an instance name asynchronously
+     *
+     * @param instanceName the instance name, representing the application or operational name of the database
+     * @param role         the user's role
+     * @param properties   connection properties (other than user, password)
+     * @param timeout      the time allowed, null for no limit
+     * @return the future connection, failed with an {@link IOException} when there is no credential
+     */
+    protected CompletableFuture<Connection> getConnectionAsync(String instanceName, String role, Properties properties,
+                                                               Duration timeout) {
+        Credential credential = get(instanceName, role);
+        if (credential == null) return CompletableFuture.failedFuture(
+                new IOException("credentials for " + instanceName + " and " + role + " not found"));
+        return credential.getConnectionAsync(properties, timeout);
     }
 
 }
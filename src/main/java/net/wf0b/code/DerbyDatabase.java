@@ -0,0 +1,209 @@
+package net.wf0b.code;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An embedded Derby database by location: a directory, an in-memory database, or a read-only database on the class
+ * path or in a jar. Each location is booted once and its connections shared through a {@link ConnectionPool}.
+ * <p>The first connection boots the database; later connections are borrowed from the pool of the location, and
+ * closing a connection returns it to the pool. The pool is sized by the <code>ConnectionCredential.pool.*</code>
+ * system properties, as for credentials. {@link #shutdown()} closes the pool and shuts the database down cleanly,
+ * and every database booted here is shut down when the JVM exits.</p>
+ * <p>An in-memory database needs no disk at all, suiting tests and local tools; it lasts until it is dropped or
+ * the JVM exits.</p>
+ * <p>Derby is tuned, when it first boots, by the following system properties, each copied to the Derby property it
+ * names unless that is already set:</p>
+ * <ul>
+ * <li><code>ConnectionCredential.derby.pageCacheSize</code> - pages kept in the page cache
+ * (<code>derby.storage.pageCacheSize</code>, Derby's default 1000)</li>
+ * <li><code>ConnectionCredential.derby.logBufferSize</code> - bytes of the log buffer
+ * (<code>derby.storage.logBufferSize</code>, Derby's default 32768)</li>
+ * <li><code>ConnectionCredential.derby.durability</code> - <code>test</code> to skip syncing to disk, trading
+ * recovery after a crash for speed (<code>derby.system.durability</code>)</li>
+ * </ul>
+ */
+public final class DerbyDatabase {
+
+    /**
+     * The Derby properties, by the system property configuring each.
+     */
+    private static final String[][] TUNING = {
+            {"ConnectionCredential.derby.pageCacheSize", "derby.storage.pageCacheSize"},
+            {"ConnectionCredential.derby.logBufferSize", "derby.storage.logBufferSize"},
+            {"ConnectionCredential.derby.durability", "derby.system.durability"}};
+
+    /**
+     * The pools, by database name.
+     */
+    private static final ConcurrentHashMap<String, ConnectionPool> POOLS = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(DerbyDatabase::shutdownAll, "DerbyDatabase-shutdown"));
+    }
+
+    /**
+     * The database name, with its subprotocol, as in <code>jdbc:derby:&lt;name&gt;</code>.
+     */
+    private final String name;
+
+    /**
+     * An indicator denoting the database is created when it does not exist.
+     */
+    private final boolean create;
+
+    /**
+     * Instantiates a location
+     *
+     * @param name   the database name, with its subprotocol
+     * @param create an indicator denoting the database is created when it does not exist
+     */
+    private DerbyDatabase(String name, boolean create) {
+        this.name = name;
+        this.create = create;
+    }
+
+    /**
+     * Gets the database in a directory, created when it does not exist
+     *
+     * @param location the directory
+     * @return the database
+     */
+    public static DerbyDatabase directory(Path location) {
+        return new DerbyDatabase("directory:" + location.toAbsolutePath(), true);
+    }
+
+    /**
+     * Gets an in-memory database, created when it does not exist
+     *
+     * @param name the name of the database
+     * @return the database
+     */
+    public static DerbyDatabase memory(String name) {
+        return new DerbyDatabase("memory:" + name, true);
+    }
+
+    /**
+     * Gets a read-only database on the class path
+     *
+     * @param path the path of the database directory within the class path
+     * @return the database
+     */
+    public static DerbyDatabase classpath(String path) {
+        return new DerbyDatabase("classpath:" + path, false);
+    }
+
+    /**
+     * Gets a read-only database in a jar or zip archive
+     *
+     * @param archive the archive
+     * @param path    the path of the database directory within the archive
+     * @return the database
+     */
+    public static DerbyDatabase jar(Path archive, String path) {
+        return new DerbyDatabase("jar:(" + archive.toAbsolutePath() + ")" + path, false);
+    }
+
+    /**
+     * Gets name.
+     *
+     * @return the database name, with its subprotocol
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Borrows a connection, booting the database for the first
+     *
+     * @return the connection; closing it returns it to the pool
+     * @throws SQLException when the connection fails
+     */
+    public Connection getConnection() throws SQLException {
+        return POOLS.computeIfAbsent(name, n -> pool()).borrow();
+    }
+
+    /**
+     * Closes the pool and shuts the database down; a later connection boots it again
+     *
+     * @throws SQLException when the shutdown fails
+     */
+    public void shutdown() throws SQLException {
+        ConnectionPool pool = POOLS.remove(name);
+        if (pool != null) pool.close();
+        command("shutdown");
+    }
+
+    /**
+     * Closes the pool and drops an in-memory database, discarding its contents
+     *
+     * @throws SQLException when the database is not in memory, or the drop fails
+     */
+    public void drop() throws SQLException {
+        if (!name.startsWith("memory:")) throw new SQLException("only an in-memory database can be dropped: " + name);
+        ConnectionPool pool = POOLS.remove(name);
+        if (pool != null) pool.close();
+        command("drop");
+    }
+
+    /**
+     * Closes every pool and shuts down every database booted here, reporting failures
+     */
+    public static void shutdownAll() {
+        for (String database : POOLS.keySet()) {
+            try {
+                new DerbyDatabase(database, false).shutdown();
+            } catch (SQLException e) {
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+
+    /**
+     * Runs a Derby command on the database, <code>shutdown</code> or <code>drop</code>; Derby reports success as an
+     * exception
+     *
+     * @param command the command
+     * @throws SQLException when the command fails
+     */
+    private void command(String command) throws SQLException {
+        String connectionString = "jdbc:derby:" + name + ";" + command + "=true";
+        try {
+            Connection connection = DriverCache.get(null, connectionString).connect(connectionString, new Properties());
+            if (connection != null) connection.close();
+        } catch (SQLException e) {
+            // shut down or dropped; or not booted, and so nothing to shut down
+            if (!"08006".equals(e.getSQLState()) && !"XJ004".equals(e.getSQLState())) throw e;
+        }
+    }
+
+    /**
+     * Creates the pool of the database
+     *
+     * @return the pool
+     */
+    private ConnectionPool pool() {
+        String connectionString = "jdbc:derby:" + name + (create ? ";create=true" : "");
+        return new ConnectionPool(() -> {
+            tune();
+            Driver driver = DriverCache.get(null, connectionString);
+            Connection result = driver.connect(connectionString, new Properties());
+            if (result == null) throw new SQLException("No suitable driver found for " + connectionString, "08001");
+            return result;
+        }, connectionString);
+    }
+
+    /**
+     * Copies the tuning to the Derby properties not already set, before Derby boots
+     */
+    private static void tune() {
+        for (String[] tuning : TUNING) {
+            String value = System.getProperty(tuning[0]);
+            if (value != null && System.getProperty(tuning[1]) == null) System.setProperty(tuning[1], value);
+        }
+    }
+}
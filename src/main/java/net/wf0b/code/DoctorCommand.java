@@ -0,0 +1,247 @@
+package net.wf0b.code;
+
+import com.google.gson.Gson;
+import picocli.CommandLine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Probes the connectivity of every active credential in the store, reporting the slowest first.
+ * <p>Each credential is probed by loading its driver and then opening a physical connection, bypassing any pool,
+ * to read the server's product name and version. Probes run concurrently on a bounded number of workers, each
+ * connecting on its own thread with the time limit as the drivers' login timeout (see
+ * {@link DriverManager#setLoginTimeout(int)}); so a store of hundreds of instances is checked in a few time limits,
+ * not one per instance that is down. A probe not done by then, its driver ignoring the login timeout, is reported as
+ * timed out and left to its worker, so there are never more connections pending than workers.</p>
+ * <p>A driver is loaded once for every credential using it: the first probe of it shows the time taken, and the
+ * others show the driver as cached.</p>
+ * <p>The command exits with 1 when any probe failed.</p>
+ *
+ * <code>
+ * <br> Usage: ConnectionCredential doctor [-hV] [-f=&lt;format&gt;] [-i=&lt;prefix&gt;] [-t=&lt;timeout&gt;] [-w=&lt;workers&gt;]
+ * <br> Probes the connectivity of the credentials, slowest first.
+ * <br> -f, --format=&lt;format&gt;         the form of the report: TABLE or JSON
+ * <br> -i, --instance=&lt;prefix&gt;       only the instance names beginning with the prefix
+ * <br> -t, --timeout=&lt;timeout&gt;       the seconds allowed each connection
+ * <br> -w, --workers=&lt;workers&gt;       the probes run at once
+ * </code>
+ */
+@CommandLine.Command(name = "doctor", mixinStandardHelpOptions = true, version = "ConnectionCredential-0.1-Snapshot",
+        description = "Probes the connectivity of the credentials, slowest first.")
+public class DoctorCommand implements Callable<Integer> {
+
+    /**
+     * The serializer of JSON lines.
+     */
+    private static final Gson GSON = new Gson();
+
+    /**
+     * The layout of a line of the table.
+     */
+    private static final String ROW = "%-24s %-16s %9s %10s  %s";
+
+    /**
+     * The prefix of the instance names probed
+     */
+    @CommandLine.Option(names = {"-i", "--instance"}, description = "only the instance names beginning with the prefix")
+    private String prefix;
+
+    /**
+     * The seconds allowed each connection
+     */
+    @CommandLine.Option(names = {"-t", "--timeout"}, description = "the seconds allowed each connection")
+    private int timeout = 5;
+
+    /**
+     * The probes run at once
+     */
+    @CommandLine.Option(names = {"-w", "--workers"}, description = "the probes run at once")
+    private int workers = 32;
+
+    /**
+     * The form of the report
+     */
+    @CommandLine.Option(names = {"-f", "--format"}, description = "the form of the report: TABLE or JSON")
+    private ListCommand.Format format = ListCommand.Format.TABLE;
+
+    /**
+     * The outcome of probing a credential.
+     *
+     * @param instance      the instance name
+     * @param role          the role
+     * @param driverMillis  the milliseconds taken to load the driver; null when loaded already, for another probe
+     * @param connectMillis the milliseconds taken to connect, or until the probe failed
+     * @param server        the server's product name and version; null when the probe failed
+     * @param failure       the failure; null when the probe succeeded
+     */
+    record Probe(String instance, String role, Long driverMillis, long connectMillis, String server, String failure) {
+
+        /**
+         * Gets the milliseconds the probe took
+         *
+         * @return the milliseconds taken to load the driver and to connect
+         */
+        long millis() {
+            return (driverMillis == null ? 0 : driverMillis) + connectMillis;
+        }
+    }
+
+    /**
+     * Probes the credentials and writes the report
+     *
+     * @return 0 when every probe succeeded, otherwise 1
+     * @throws Exception for an error thrown
+     */
+    public Integer call() throws Exception {
+        List<Probe> probes = probe();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try {
+            if (format == ListCommand.Format.TABLE) {
+                writer.write(String.format(ROW, "INSTANCE", "ROLE", "DRIVER MS", "CONNECT MS", "SERVER OR FAILURE"));
+                writer.write(System.lineSeparator());
+            }
+            for (Probe probe : probes) {
+                writer.write(format(probe));
+                writer.write(System.lineSeparator());
+            }
+        } finally {
+            writer.flush();
+        }
+        return probes.stream().anyMatch(probe -> probe.failure() != null) ? 1 : 0;
+    }
+
+    /**
+     * Probes the active credentials of the store concurrently
+     *
+     * @return the outcomes, slowest first
+     * @throws IOException for any IO error reading the store
+     */
+    List<Probe> probe() throws IOException {
+        List<Credential> credentials = new ArrayList<>();
+        CredentialStore.getDefault().scan(credential -> prefix == null || credential.getInstanceName().startsWith(prefix),
+                credentials::add);
+        List<Probe> result = new ArrayList<>();
+        if (credentials.isEmpty()) return result;
+        int threads = Math.max(1, Math.min(workers, credentials.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "ConnectionCredential-doctor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Duration allowed = Duration.ofSeconds(timeout);
+        int loginTimeout = DriverManager.getLoginTimeout();
+        DriverManager.setLoginTimeout(timeout);
+        try {
+            List<Future<Probe>> futures = new ArrayList<>();
+            for (Credential credential : credentials) futures.add(executor.submit(() -> probe(credential)));
+            // each worker is allowed the time limit per probe, and once more for loading the drivers
+            long deadline = System.nanoTime()
+                    + allowed.toNanos() * ((credentials.size() + threads - 1) / threads + 1);
+            for (int i = 0; i < futures.size(); i++)
+                result.add(collect(credentials.get(i), futures.get(i), deadline, allowed));
+        } finally {
+            DriverManager.setLoginTimeout(loginTimeout);
+            executor.shutdownNow();
+        }
+        result.sort(Comparator.comparingLong(Probe::millis).reversed());
+        return result;
+    }
+
+    /**
+     * Waits for the outcome of probing a credential, until a deadline
+     *
+     * @param credential the credential
+     * @param future     the probe
+     * @param deadline   the time the probe must be done by, in nanoseconds
+     * @param timeout    the time allowed each connection
+     * @return the outcome; a failure when the probe failed, or was not done by the deadline
+     */
+    private static Probe collect(Credential credential, Future<Probe> future, long deadline, Duration timeout) {
+        String instance = credential.getInstanceName();
+        String role = credential.getAccount();
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            return new Probe(instance, role, null, timeout.toMillis(), null,
+                    "timed out after " + timeout.toSeconds() + " s");
+        } catch (ExecutionException e) {
+            return new Probe(instance, role, null, 0, null, String.valueOf(e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Probe(instance, role, null, 0, null, "interrupted");
+        }
+    }
+
+    /**
+     * Probes a credential: loads its driver, then connects and reads the server version
+     * <p>The connection is made on the calling thread, within the login timeout of the drivers.</p>
+     *
+     * @param credential the credential
+     * @return the outcome
+     */
+    static Probe probe(Credential credential) {
+        String instance = credential.getInstanceName();
+        String role = credential.getAccount();
+        boolean resolved = DriverCache.isResolved(credential.getDriverName(), credential.getConnectionString());
+        long start = System.nanoTime();
+        try {
+            DriverCache.get(credential.getDriverName(), credential.getConnectionString());
+        } catch (SQLException e) {
+            return new Probe(instance, role, millis(start), 0, null, "driver: " + e.getMessage());
+        }
+        Long driverMillis = resolved ? null : millis(start);
+        start = System.nanoTime();
+        try (Connection connection = credential.openConnection(new Properties())) {
+            long connectMillis = millis(start);
+            DatabaseMetaData metaData = connection.getMetaData();
+            return new Probe(instance, role, driverMillis, connectMillis,
+                    metaData.getDatabaseProductName() + " " + metaData.getDatabaseProductVersion(), null);
+        } catch (SQLException e) {
+            return new Probe(instance, role, driverMillis, millis(start), null, e.getMessage());
+        }
+    }
+
+    /**
+     * Formats an outcome as a line, without the line separator
+     *
+     * @param probe the outcome
+     * @return the line
+     */
+    String format(Probe probe) {
+        if (format == ListCommand.Format.JSON) return GSON.toJson(probe);
+        return String.format(ROW, probe.instance(), probe.role(),
+                probe.driverMillis() == null ? "cached" : probe.driverMillis(), probe.connectMillis(),
+                probe.failure() == null ? probe.server() : "FAILED " + probe.failure());
+    }
+
+    /**
+     * Gets the milliseconds elapsed
+     *
+     * @param start the start time, in nanoseconds
+     * @return the milliseconds since
+     */
+    private static long millis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
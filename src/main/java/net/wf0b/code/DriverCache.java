@@ -0,0 +1,96 @@
+package net.wf0b.code;
+
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Enumeration;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The drivers used to connect, resolved once and then called directly.
+ * <p>{@link DriverManager#getConnection(String, java.util.Properties)} walks every registered driver under a shared
+ * lock, asking each to accept the connection string. Instead, the driver named in a credential is loaded once and
+ * kept, and a connection string whose driver can not be loaded by name is resolved by the {@link DriverManager}
+ * once and kept. Either way the connection is made by {@link Driver#connect(String, java.util.Properties)}.</p>
+ */
+final class DriverCache {
+
+    /**
+     * The drivers, by class name; empty when the class can not be loaded.
+     */
+    private static final ConcurrentHashMap<String, Optional<Driver>> BY_NAME = new ConcurrentHashMap<>();
+
+    /**
+     * The drivers resolved by the {@link DriverManager}, by connection string.
+     */
+    private static final ConcurrentHashMap<String, Driver> BY_URL = new ConcurrentHashMap<>();
+
+    /**
+     * Not instantiated
+     */
+    private DriverCache() {
+    }
+
+    /**
+     * Gets the driver for a connection string, preferring the driver named
+     *
+     * @param driverName       the class name of the driver, may be null
+     * @param connectionString the connection string
+     * @return the driver
+     * @throws SQLException when no driver accepts the connection string
+     */
+    static Driver get(String driverName, String connectionString) throws SQLException {
+        if (driverName != null && !driverName.isEmpty()) {
+            Optional<Driver> named = BY_NAME.computeIfAbsent(driverName, DriverCache::load);
+            if (named.isPresent() && named.get().acceptsURL(connectionString)) return named.get();
+        }
+        Driver result = BY_URL.get(connectionString);
+        if (result == null) {
+            result = DriverManager.getDriver(connectionString);
+            BY_URL.putIfAbsent(connectionString, result);
+        }
+        return result;
+    }
+
+    /**
+     * Tells whether the driver for a connection string has been resolved already, so that getting it costs nothing
+     *
+     * @param driverName       the class name of the driver, may be null
+     * @param connectionString the connection string
+     * @return true when the driver has been resolved
+     */
+    static boolean isResolved(String driverName, String connectionString) {
+        return driverName != null && !driverName.isEmpty() && BY_NAME.containsKey(driverName)
+                || BY_URL.containsKey(connectionString);
+    }
+
+    /**
+     * Discards every driver resolved
+     */
+    static void clear() {
+        BY_NAME.clear();
+        BY_URL.clear();
+    }
+
+    /**
+     * Loads a driver by class name, preferring the instance the driver registered with the {@link DriverManager}
+     *
+     * @param driverName the class name of the driver
+     * @return the driver, empty when the class can not be loaded or instantiated
+     */
+    private static Optional<Driver> load(String driverName) {
+        try {
+            Class<?> type = Class.forName(driverName);
+            if (!Driver.class.isAssignableFrom(type)) return Optional.empty();
+            Enumeration<Driver> registered = DriverManager.getDrivers();
+            while (registered.hasMoreElements()) {
+                Driver driver = registered.nextElement();
+                if (driver.getClass() == type) return Optional.of(driver);
+            }
+            return Optional.of((Driver) type.getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package net.wf0b.code;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The health of the endpoints (connection strings) of credentials that have more than one, used to route each new
+ * connection to the healthiest.
+ * <p>For each endpoint the latency of connecting and the rate of failures are tracked as moving averages. An
+ * endpoint that fails is down: it is tried only after every endpoint that is up, and it is probed in the background
+ * after a delay (system property <code>ConnectionCredential.endpoint.retry</code>, in milliseconds, default 5000),
+ * doubling with each failure up to sixteen times, until a probe connects. So once the primary is down, a request
+ * costs one attempt on the next endpoint rather than a timeout on the primary first.</p>
+ * <p>Each endpoint has at most one probe at a time, and probes run on threads of their own, so an endpoint whose
+ * probe hangs delays the recovery of no other.</p>
+ * <p>Endpoints that are up are ordered by their latency, weighted by their failure rate; endpoints not yet used
+ * follow, in the order declared, and endpoints that are down come last.</p>
+ */
+final class EndpointHealth {
+
+    /**
+     * The weight of the newest sample in the moving averages.
+     */
+    private static final double WEIGHT = 0.2;
+
+    /**
+     * The health, by endpoint.
+     */
+    private static final ConcurrentHashMap<String, EndpointHealth> HEALTH = new ConcurrentHashMap<>();
+
+    /**
+     * The timer of the probes of endpoints that are down; it only hands each probe to {@link #PROBES}.
+     */
+    private static final ScheduledExecutorService PROBER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ConnectionCredential-endpoint-probe");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The probes running, at most one per endpoint that is down.
+     */
+    private static final ExecutorService PROBES = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ConnectionCredential-endpoint-probe");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The moving average of the latency of connecting, in nanoseconds; negative until sampled.
+     */
+    private double latency = -1;
+
+    /**
+     * The moving average of the failures, from 0 to 1.
+     */
+    private double failureRate;
+
+    /**
+     * The failures since the endpoint last connected.
+     */
+    private int failures;
+
+    /**
+     * An indicator denoting a probe is scheduled or running.
+     */
+    private boolean probing;
+
+    /**
+     * The health of an endpoint, as reported.
+     *
+     * @param latencyNanos the moving average of the latency of connecting, in nanoseconds; negative until sampled
+     * @param failureRate  the moving average of the failures, from 0 to 1
+     * @param down         an indicator denoting the endpoint is down
+     */
+    record Snapshot(long latencyNanos, double failureRate, boolean down) {
+    }
+
+    /**
+     * Not instantiated but by {@link #of(String)}
+     */
+    private EndpointHealth() {
+    }
+
+    /**
+     * Gets the health of an endpoint
+     *
+     * @param endpoint the connection string
+     * @return the health
+     */
+    private static EndpointHealth of(String endpoint) {
+        return HEALTH.computeIfAbsent(endpoint, e -> new EndpointHealth());
+    }
+
+    /**
+     * Orders endpoints healthiest first
+     *
+     * @param endpoints the connection strings, in the order declared
+     * @return the connection strings, in the order to try them
+     */
+    static List<String> order(List<String> endpoints) {
+        List<String> up = new ArrayList<>();
+        List<String> unused = new ArrayList<>();
+        List<String> down = new ArrayList<>();
+        // score once, the health changing while sorting
+        Map<String, Double> scores = new HashMap<>();
+        for (String endpoint : endpoints) {
+            Snapshot health = get(endpoint);
+            if (health.down()) down.add(endpoint);
+            else if (health.latencyNanos() < 0) unused.add(endpoint);
+            else {
+                up.add(endpoint);
+                scores.put(endpoint, health.latencyNanos() * (1 + 4 * health.failureRate()));
+            }
+        }
+        up.sort(Comparator.comparingDouble(scores::get));
+        up.addAll(unused);
+        up.addAll(down);
+        return up;
+    }
+
+    /**
+     * Gets the health of an endpoint
+     *
+     * @param endpoint the connection string
+     * @return the health
+     */
+    static Snapshot get(String endpoint) {
+        EndpointHealth health = HEALTH.get(endpoint);
+        if (health == null) return new Snapshot(-1, 0, false);
+        synchronized (health) {
+            return new Snapshot((long) health.latency, health.failureRate, health.failures > 0);
+        }
+    }
+
+    /**
+     * Records a connection made to an endpoint, which is then up
+     *
+     * @param endpoint the connection string
+     * @param nanos    the time taken to connect
+     */
+    static void succeeded(String endpoint, long nanos) {
+        EndpointHealth health = of(endpoint);
+        synchronized (health) {
+            health.latency = health.latency < 0 ? nanos : health.latency + WEIGHT * (nanos - health.latency);
+            health.failureRate -= WEIGHT * health.failureRate;
+            health.failures = 0;
+        }
+    }
+
+    /**
+     * Records a failure to connect to an endpoint, which is then down, and schedules a probe of it
+     *
+     * @param endpoint the connection string
+     * @param probe    connects to the endpoint, as a probe
+     */
+    static void failed(String endpoint, Callable<Connection> probe) {
+        EndpointHealth health = of(endpoint);
+        long delay;
+        synchronized (health) {
+            health.failureRate += WEIGHT * (1 - health.failureRate);
+            health.failures++;
+            if (health.probing) return;
+            health.probing = true;
+            delay = Long.getLong("ConnectionCredential.endpoint.retry", 5000L) << Math.min(health.failures - 1, 4);
+        }
+        PROBER.schedule(() -> PROBES.execute(() -> probe(endpoint, probe)), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Probes an endpoint that is down, recording the outcome
+     *
+     * @param endpoint the connection string
+     * @param probe    connects to the endpoint, as a probe
+     */
+    private static void probe(String endpoint, Callable<Connection> probe) {
+        EndpointHealth health = of(endpoint);
+        synchronized (health) {
+            // a request connected meanwhile
+            if (health.failures == 0) {
+                health.probing = false;
+                return;
+            }
+        }
+        long start = System.nanoTime();
+        boolean connected = false;
+        try (Connection connection = probe.call()) {
+            if (connection == null) throw new IllegalStateException("no connection");
+            connected = true;
+            succeeded(endpoint, System.nanoTime() - start);
+        } catch (Exception e) {
+            // the failure is recorded below, once the probe is over
+        } finally {
+            // requests failing while the probe ran scheduled nothing, the probe still being in flight
+            synchronized (health) {
+                health.probing = false;
+            }
+        }
+        if (!connected) failed(endpoint, probe);
+    }
+
+    /**
+     * Forgets the health of every endpoint
+     */
+    static void clear() {
+        HEALTH.clear();
+    }
+}
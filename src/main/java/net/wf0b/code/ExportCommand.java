@@ -0,0 +1,87 @@
+package net.wf0b.code;
+
+import picocli.CommandLine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+/**
+ * Writes the credentials as records the bulk command reads (see {@link BulkRecord}), to a file or the standard
+ * output.
+ * <p>Each credential is written as it is read from the store, without holding the store in memory (see
+ * {@link CredentialStore#scan}). Passwords are left out unless asked for, and then
+ * are written in the clear.</p>
+ *
+ * <code>
+ * <br> Usage: ConnectionCredential export [-hVP] [-f=&lt;format&gt;] [&lt;file&gt;]
+ * <br> Writes the credentials as CSV or JSON lines.
+ * <br> [&lt;file&gt;]                 the file to write, - or none for the standard output
+ * <br> -f, --format=&lt;format&gt;      the form of the records: CSV or JSON
+ * <br> -P, --passwords             include the passwords, in the clear
+ * </code>
+ */
+@CommandLine.Command(name = "export", mixinStandardHelpOptions = true, version = "ConnectionCredential-0.1-Snapshot",
+        description = "Writes the credentials as CSV or JSON lines.")
+public class ExportCommand implements Callable<Integer> {
+
+    /**
+     * The file to write
+     */
+    @CommandLine.Parameters(arity = "0..1", description = "the file to write, - or none for the standard output")
+    private String file;
+
+    /**
+     * The form of the records
+     */
+    @CommandLine.Option(names = {"-f", "--format"}, description = "the form of the records: CSV or JSON")
+    private BulkRecord.Format format;
+
+    /**
+     * Denotes whether passwords are written
+     */
+    @CommandLine.Option(names = {"-P", "--passwords"}, description = "include the passwords, in the clear")
+    private boolean passwords = false;
+
+    /**
+     * Writes the records
+     *
+     * @return 0
+     * @throws Exception for an error thrown
+     */
+    public Integer call() throws Exception {
+        BulkRecord.Format form = format != null ? format
+                : file != null && (file.endsWith(".json") || file.endsWith(".jsonl")) ? BulkRecord.Format.JSON
+                : BulkRecord.Format.CSV;
+        boolean standard = file == null || file.equals("-");
+        Writer writer = standard ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                : Files.newBufferedWriter(Path.of(file));
+        try {
+            export(writer, form);
+        } finally {
+            if (standard) writer.flush();
+            else writer.close();
+        }
+        return 0;
+    }
+
+    /**
+     * Writes the records of the credentials in the store
+     *
+     * @param writer the writer
+     * @param form   the form of the records
+     * @throws IOException for any IO error
+     */
+    private void export(Writer writer, BulkRecord.Format form) throws IOException {
+        if (form == BulkRecord.Format.CSV) writer.write(BulkRecord.HEADER + System.lineSeparator());
+        CredentialStore.getDefault().scan(credential -> true, credential -> {
+            writer.write(BulkRecord.of(credential, passwords ? credential.getCred() : null).format(form));
+            writer.write(System.lineSeparator());
+        });
+    }
+}
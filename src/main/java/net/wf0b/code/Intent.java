@@ -0,0 +1,16 @@
+package net.wf0b.code;
+
+/**
+ * What a connection is for, deciding whether it is routed to the primary or a replica (see {@link ReplicaRouter}).
+ */
+public enum Intent {
+    /**
+     * Reads only; routed to a replica when the instance has any, and made read-only
+     */
+    READ,
+
+    /**
+     * Reads and writes; always routed to the primary
+     */
+    WRITE
+}
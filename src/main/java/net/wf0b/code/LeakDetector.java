@@ -0,0 +1,330 @@
+package net.wf0b.code;
+
+import java.lang.ref.Cleaner;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detects connections handed out by this library and held open past a threshold, which are most likely leaked.
+ * <p>Detection is enabled by the system property <code>ConnectionCredential.leak.threshold</code>, in milliseconds,
+ * or {@link #setThreshold(long)}; it is off by default. Each connection handed out while enabled is tracked until it
+ * is closed, and checked once a second: a connection held past the threshold is reported once, to each
+ * {@link Listener} and on the standard error. A connection garbage collected without being closed is reported as
+ * well, and the connection it wrapped is closed, which returns a pooled connection to its pool.</p>
+ * <p>Capturing the stack of the caller is what costs, so it is sampled: one connection in
+ * <code>ConnectionCredential.leak.sample</code> (default 100, 1 for every connection) records where it was acquired,
+ * and the others report only their thread and age.</p>
+ * <p>The oldest connections open are available on demand, see {@link #getOldest(int)}.</p>
+ */
+public final class LeakDetector {
+
+    /**
+     * The milliseconds a connection may be held before it is reported; 0 when detection is off.
+     */
+    private static volatile long threshold = Long.getLong("ConnectionCredential.leak.threshold", 0L);
+
+    /**
+     * One connection in this many captures the stack where it was acquired.
+     */
+    private static volatile int sample = Math.max(1, Integer.getInteger("ConnectionCredential.leak.sample", 100));
+
+    /**
+     * The connections open, by lease number.
+     */
+    private static final ConcurrentHashMap<Long, Lease> OPEN = new ConcurrentHashMap<>();
+
+    /**
+     * The next lease number.
+     */
+    private static final AtomicLong NEXT = new AtomicLong();
+
+    /**
+     * The listeners.
+     */
+    private static final CopyOnWriteArrayList<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    /**
+     * The cleaner reporting connections garbage collected without being closed.
+     */
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /**
+     * The checker of the connections open; null until detection is first enabled.
+     */
+    private static volatile ScheduledExecutorService checker;
+
+    /**
+     * Receives the connections reported as leaked.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Receives a connection reported as leaked
+         *
+         * @param leak the connection
+         */
+        void leaked(Leak leak);
+    }
+
+    /**
+     * A connection open, as reported.
+     *
+     * @param key        the instance name and role of the connection
+     * @param thread     the name of the thread that acquired the connection
+     * @param heldMillis the milliseconds the connection has been held
+     * @param stack      where the connection was acquired; null when not sampled
+     * @param collected  an indicator denoting the connection was garbage collected without being closed
+     */
+    public record Leak(CredentialKey key, String thread, long heldMillis, Throwable stack, boolean collected) {
+    }
+
+    /**
+     * A connection open.
+     */
+    private static final class Lease {
+
+        /**
+         * The instance name and role of the connection.
+         */
+        private final CredentialKey key;
+
+        /**
+         * The name of the thread that acquired the connection.
+         */
+        private final String thread = Thread.currentThread().getName();
+
+        /**
+         * The time the connection was acquired, in nanoseconds.
+         */
+        private final long acquired = System.nanoTime();
+
+        /**
+         * Where the connection was acquired; null when not sampled.
+         */
+        private final Throwable stack;
+
+        /**
+         * An indicator denoting the connection has been reported.
+         */
+        private final AtomicBoolean reported = new AtomicBoolean(false);
+
+        /**
+         * Instantiates a lease
+         *
+         * @param key   the instance name and role of the connection
+         * @param stack where the connection was acquired; null when not sampled
+         */
+        private Lease(CredentialKey key, Throwable stack) {
+            this.key = key;
+            this.stack = stack;
+        }
+
+        /**
+         * Reports the lease as it is now
+         *
+         * @param collected an indicator denoting the connection was garbage collected without being closed
+         * @return the report
+         */
+        private Leak toLeak(boolean collected) {
+            return new Leak(key, thread, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - acquired), stack, collected);
+        }
+    }
+
+    /**
+     * Not instantiated
+     */
+    private LeakDetector() {
+    }
+
+    /**
+     * Gets the threshold
+     *
+     * @return the milliseconds a connection may be held before it is reported; 0 when detection is off
+     */
+    public static long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets the threshold, for connections handed out from now on
+     *
+     * @param millis the milliseconds a connection may be held before it is reported; 0 to turn detection off
+     */
+    public static void setThreshold(long millis) {
+        threshold = Math.max(0, millis);
+        if (threshold > 0) start();
+    }
+
+    /**
+     * Starts the checker, once
+     */
+    private static void start() {
+        if (checker != null) return;
+        synchronized (LeakDetector.class) {
+            if (checker != null) return;
+            ScheduledExecutorService result = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ConnectionCredential-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            result.scheduleWithFixedDelay(LeakDetector::check, 1, 1, TimeUnit.SECONDS);
+            checker = result;
+        }
+    }
+
+    /**
+     * Sets the sampling of stacks
+     *
+     * @param rate one connection in this many captures the stack where it was acquired; 1 for every connection
+     */
+    public static void setSampleRate(int rate) {
+        sample = Math.max(1, rate);
+    }
+
+    /**
+     * Adds a listener
+     *
+     * @param listener the listener
+     */
+    public static void addListener(Listener listener) {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * Removes a listener
+     *
+     * @param listener the listener
+     */
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Gets the oldest connections open, tracked since detection was enabled
+     *
+     * @param limit the most connections reported
+     * @return the connections, oldest first
+     */
+    public static List<Leak> getOldest(int limit) {
+        List<Lease> leases = new ArrayList<>(OPEN.values());
+        leases.sort(Comparator.comparingLong(lease -> lease.acquired));
+        List<Leak> result = new ArrayList<>();
+        for (Lease lease : leases.subList(0, Math.min(limit, leases.size()))) result.add(lease.toLeak(false));
+        return result;
+    }
+
+    /**
+     * Tracks a connection handed out, when detection is enabled
+     *
+     * @param connection the connection
+     * @param key        the instance name and role of the connection
+     * @return the connection, tracked until it is closed
+     */
+    static Connection track(Connection connection, CredentialKey key) {
+        if (threshold == 0 || connection == null) return connection;
+        start();
+        int rate = sample;
+        Throwable stack = rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0
+                ? new Throwable("connection acquired here") : null;
+        long number = NEXT.incrementAndGet();
+        Lease lease = new Lease(key, stack);
+        OPEN.put(number, lease);
+        AtomicBoolean closed = new AtomicBoolean(false);
+        InvocationHandler handler = (Object proxy, Method method, Object[] args) -> {
+            switch (method.getName()) {
+                case "close":
+                    if (closed.compareAndSet(false, true)) OPEN.remove(number);
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Tracked " + connection;
+                default:
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        Connection result = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handler);
+        CLEANER.register(result, () -> collected(number, connection));
+        return result;
+    }
+
+    /**
+     * Reports a connection garbage collected without being closed, and closes the connection it wrapped
+     * <p>Nothing can use the connection any more, so closing it frees its database session and, for a pooled
+     * connection, returns it to its pool instead of holding a place there for good.</p>
+     *
+     * @param number     the lease number
+     * @param connection the connection wrapped
+     */
+    private static void collected(long number, Connection connection) {
+        Lease lease = OPEN.remove(number);
+        if (lease == null) return;
+        try {
+            connection.close();
+        } catch (SQLException | RuntimeException e) {
+            e.printStackTrace(System.err);
+        }
+        report(lease.toLeak(true));
+    }
+
+    /**
+     * Reports the connections held past the threshold, once each
+     */
+    static void check() {
+        long limit = threshold;
+        if (limit == 0) return;
+        long now = System.nanoTime();
+        for (Lease lease : OPEN.values()) {
+            if (now - lease.acquired > TimeUnit.MILLISECONDS.toNanos(limit) && lease.reported.compareAndSet(false, true))
+                report(lease.toLeak(false));
+        }
+    }
+
+    /**
+     * Forgets every connection open, which is then no longer reported
+     */
+    static void clear() {
+        OPEN.clear();
+    }
+
+    /**
+     * Reports a leak to the listeners and on the standard error
+     *
+     * @param leak the leak
+     */
+    private static void report(Leak leak) {
+        System.err.println("connection for " + leak.key().instanceName() + " and " + leak.key().role()
+                + (leak.collected() ? " garbage collected without being closed" : " held " + leak.heldMillis() + " ms")
+                + " by " + leak.thread());
+        if (leak.stack() != null) leak.stack().printStackTrace(System.err);
+        for (Listener listener : LISTENERS) {
+            try {
+                listener.leaked(leak);
+            } catch (RuntimeException e) {
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package net.wf0b.code;
+
+import com.google.gson.Gson;
+import picocli.CommandLine;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+
+/**
+ * Lists the credentials in the store, without their passwords, filtered by instance name prefix, role or driver.
+ * <p>Each credential is written as it is read from the store (see {@link CredentialStore#scan}), so a store of any
+ * size is listed in constant memory, and no password is decrypted.</p>
+ *
+ * <code>
+ * <br> Usage: ConnectionCredential list [-hV] [-d=&lt;driverName&gt;] [-f=&lt;format&gt;] [-i=&lt;prefix&gt;] [-r=&lt;role&gt;]
+ * <br> Lists the credentials, without their passwords.
+ * <br> -d, --driver=&lt;driverName&gt;     only the credentials for the jdbc driver name
+ * <br> -f, --format=&lt;format&gt;         the form of the list: TABLE or JSON
+ * <br> -i, --instance=&lt;prefix&gt;       only the instance names beginning with the prefix
+ * <br> -r, --role=&lt;role&gt;             only the credentials for the role
+ * </code>
+ */
+@CommandLine.Command(name = "list", mixinStandardHelpOptions = true, version = "ConnectionCredential-0.1-Snapshot",
+        description = "Lists the credentials, without their passwords.")
+public class ListCommand implements Callable<Integer> {
+
+    /**
+     * The serializer of JSON lines.
+     */
+    private static final Gson GSON = new Gson();
+
+    /**
+     * The layout of a line of the table.
+     */
+    private static final String ROW = "%-24s %-16s %-40s %s";
+
+    /**
+     * The prefix of the instance names listed
+     */
+    @CommandLine.Option(names = {"-i", "--instance"}, description = "only the instance names beginning with the prefix")
+    private String prefix;
+
+    /**
+     * The role listed
+     */
+    @CommandLine.Option(names = {"-r", "--role"}, description = "only the credentials for the role")
+    private String role;
+
+    /**
+     * The driver name listed
+     */
+    @CommandLine.Option(names = {"-d", "--driver"}, description = "only the credentials for the jdbc driver name")
+    private String driverName;
+
+    /**
+     * The form of the list
+     */
+    @CommandLine.Option(names = {"-f", "--format"}, description = "the form of the list: TABLE or JSON")
+    private Format format = Format.TABLE;
+
+    /**
+     * The forms of the list.
+     */
+    enum Format {
+        /**
+         * A line of aligned columns per credential, after a heading
+         */
+        TABLE,
+        /**
+         * One JSON object per line
+         */
+        JSON
+    }
+
+    /**
+     * A credential as listed.
+     *
+     * @param instance the instance name
+     * @param role     the role
+     * @param driver   the driver name
+     * @param string   the connection string
+     */
+    private record Entry(String instance, String role, String driver, String string) {
+    }
+
+    /**
+     * Writes the list
+     *
+     * @return 0
+     * @throws Exception for an error thrown
+     */
+    public Integer call() throws Exception {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try {
+            if (format == Format.TABLE) {
+                writer.write(String.format(ROW, "INSTANCE", "ROLE", "DRIVER", "CONNECTION STRING"));
+                writer.write(System.lineSeparator());
+            }
+            CredentialStore.getDefault().scan(filter(), credential -> {
+                writer.write(format(credential));
+                writer.write(System.lineSeparator());
+            });
+        } finally {
+            writer.flush();
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the filter of the options given
+     *
+     * @return the filter
+     */
+    Predicate<Credential> filter() {
+        return credential -> (prefix == null || credential.getInstanceName().startsWith(prefix))
+                && (role == null || role.equals(credential.getAccount()))
+                && (driverName == null || driverName.equals(credential.getDriverName()));
+    }
+
+    /**
+     * Formats a credential as a line, without the line separator
+     *
+     * @param credential the credential
+     * @return the line
+     */
+    String format(Credential credential) {
+        if (format == Format.JSON) return GSON.toJson(new Entry(credential.getInstanceName(), credential.getAccount(),
+                credential.getDriverName(), credential.getConnectionString()));
+        return String.format(ROW, credential.getInstanceName(), credential.getAccount(), credential.getDriverName(),
+                credential.getConnectionString());
+    }
+}
@@ -1,10 +1,7 @@
 package net.wf0b.code;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
 import javax.crypto.spec.SecretKeySpec;
-import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -14,10 +11,14 @@ import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static net.wf0b.code.OperatingSystem.OS.*;
 
@@ -149,27 +150,34 @@ public class OperatingSystem {
         return UNKNOWN;
     }
 
+    /**
+     * The application homes resolved, by user home and application name.
+     */
+    private static final ConcurrentHashMap<String, Path> APPLICATION_HOMES = new ConcurrentHashMap<>();
+
     /**
      * Returns the Path to the Application Data.
-     * <p>First execution will create directory when it doesn't exist.</p>
+     * <p>First execution will create directory when it doesn't exist. The path is resolved once for each user home
+     * and application, and recorded in the system property <code>application.home</code> when it is resolved.</p>
      *
      * @param application the Application Name
      * @return the Path
      * @throws IOException when directory create fails
      */
     protected static Path getApplicationHome(String application) throws IOException {
-        Path result;
+        String home = System.getProperty("user.home");
+        Path result = APPLICATION_HOMES.get(home + File.pathSeparator + application);
+        if (result != null && Files.isDirectory(result)) return result;
         if (isWindows()) {
-            result = Paths.get(System.getProperty("user.home"), "AppData", "Local", "." + application);
+            result = Paths.get(home, "AppData", "Local", "." + application);
             if (!Files.exists(result)) Files.createDirectories(result);
             result = Files.setAttribute(result, "dos:hidden", true, LinkOption.NOFOLLOW_LINKS);
         } else {
-            result = Paths.get(System.getProperty("user.home"), "." + application);
+            result = Paths.get(home, "." + application);
             if (!Files.exists(result)) Files.createDirectories(result);
         }
-        Properties p = new Properties(System.getProperties());
-        p.put("application.home", result.toString());
-        System.setProperties(p);
+        System.setProperty("application.home", result.toString());
+        APPLICATION_HOMES.put(home + File.pathSeparator + application, result);
         return result;
     }
 
@@ -257,21 +265,43 @@ public class OperatingSystem {
         return System.getenv("ConnectionCredential");
     }
 
+    /**
+     * The secret key last derived, with the user and phrase it was derived from.
+     *
+     * @param user   the user
+     * @param phrase the phrase
+     * @param key    the secret key
+     */
+    private record DerivedKey(String user, String phrase, SecretKeySpec key) {
+    }
+
+    /**
+     * The secret key last derived.
+     */
+    private static volatile DerivedKey derivedKey;
+
     /**
      * Provides a secret key based on the user, the phrase, and a token
+     * <p>The key is derived once and kept until the user or the phrase changes.</p>
      *
      * @return the secret key
      */
     protected static SecretKeySpec getKey() {
+        String user = getUser();
+        String phrase = getPhrase();
+        DerivedKey derived = derivedKey;
+        if (derived != null && Objects.equals(derived.user(), user) && Objects.equals(derived.phrase(), phrase))
+            return derived.key();
         SecretKeySpec secretKey = null;
         byte[] key;
         MessageDigest sha;
         try {
-            key = (getUser() + getPhrase() + "HiddenMessage").getBytes(StandardCharsets.UTF_8);
+            key = (user + phrase + "HiddenMessage").getBytes(StandardCharsets.UTF_8);
             sha = MessageDigest.getInstance("SHA-256");
             key = sha.digest(key);
             key = Arrays.copyOf(key, 16);
             secretKey = new SecretKeySpec(key, "AES");
+            derivedKey = new DerivedKey(user, phrase, secretKey);
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace(System.err);
         }
@@ -313,30 +343,20 @@ public class OperatingSystem {
      * gets the credentials
      *
      * @return the credentials
+     * @throws IOException for any IO error
      */
     protected static Credentials getCredentials() throws IOException {
-        Path path = Paths.get(getApplicationHome("ConnectionCredential").toString(), ".credentials");
-        if (!Files.exists(path)) return new Credentials();
-        return new Gson().fromJson(Files.newBufferedReader(path), Credentials.class);
+        return CredentialStore.getDefault().read();
     }
 
     /**
      * puts the credentials
      *
-     * @param credentials
-     * @throws IOException
+     * @param credentials the credentials
+     * @throws IOException for any IO error
      */
     protected static void putCredentials(Credentials credentials) throws IOException {
-        Credentials c = new Credentials();
-        for (Integer key : credentials.keySet()) {
-            if (credentials.get(key).isActive()) c.put(key, credentials.get(key));
-        }
-        Path path = Paths.get(getApplicationHome("ConnectionCredential").toString(), ".credentials");
-        String json = new GsonBuilder().setPrettyPrinting().create().toJson(c);
-        BufferedWriter writer = Files.newBufferedWriter(path);
-        writer.write(json);
-        writer.flush();
-        writer.close();
+        CredentialStore.getDefault().write(credentials);
     }
 
     /**
@@ -353,6 +373,8 @@ public class OperatingSystem {
 
     /**
      * Gets the connection for the user's role in an instance name
+     * <p>When pooling is enabled (see {@link ConnectionPool}), the connection is borrowed from the pool for the
+     * instance name and role. Reading the store is recorded in {@link ConnectionMetrics}.</p>
      *
      * @param instanceName the instance name, representing the application or operational name of the database
      * @param role         the user's role
@@ -361,11 +383,87 @@ public class OperatingSystem {
      * @throws IOException for any IO error
      */
     public static Connection getConnection(String instanceName, String role, Properties properties) throws IOException {
-        return getCredentials().getConnection(instanceName, role, properties);
+        return lookup(instanceName, role).getConnection(properties);
+    }
+
+    /**
+     * Gets a connection for the user's role in an instance name, routed by intent between the primary and its
+     * replicas (see {@link ReplicaRouter})
+     *
+     * @param instanceName the instance name of the primary, representing the application or operational name of the
+     *                     database
+     * @param role         the user's role
+     * @param intent       what the connection is for
+     * @param properties   connection properties (other than user, password)
+     * @return the connection, read-only for a read
+     * @throws IOException  when there is no credential, or for any IO error
+     * @throws SQLException when the connection fails
+     */
+    public static Connection getConnection(String instanceName, String role, Intent intent, Properties properties)
+            throws IOException, SQLException {
+        Credential primary = lookup(instanceName, role);
+        List<Credential> replicas = CredentialStore.getDefault().getReplicas(instanceName, role);
+        return ReplicaRouter.route(primary, replicas, intent, properties);
+    }
+
+    /**
+     * Gets the connection for the user in an instance name asynchronously
+     *
+     * @param instanceName the instance name, representing the application or operational name of the database
+     * @param properties   connection properties (other than user, password)
+     * @param timeout      the time allowed, null for no limit
+     * @return the future connection
+     */
+    public static CompletableFuture<Connection> getConnectionAsync(String instanceName, Properties properties,
+                                                                   Duration timeout) {
+        return getConnectionAsync(instanceName, getUser(), properties, timeout);
+    }
+
+    /**
+     * Gets the connection for the user's role in an instance name asynchronously
+     * <p>Reading the store, decrypting and the handshake all run off the calling thread (see
+     * {@link Credential#getConnectionAsync(Properties, Duration)}), so connections to several instances may be
+     * acquired at once.</p>
+     *
+     * @param instanceName the instance name, representing the application or operational name of the database
+     * @param role         the user's role
+     * @param properties   connection properties (other than user, password)
+     * @param timeout      the time allowed, null for no limit
+     * @return the future connection, failed with an {@link IOException} when there is no credential
+     */
+    public static CompletableFuture<Connection> getConnectionAsync(String instanceName, String role,
+                                                                   Properties properties, Duration timeout) {
+        return ConnectionExecutor.submit(() -> lookup(instanceName, role).acquire(properties), timeout);
+    }
+
+    /**
+     * Looks up the credential for the user's role in an instance name, recording the store stage in
+     * {@link ConnectionMetrics}
+     *
+     * @param instanceName the instance name, representing the application or operational name of the database
+     * @param role         the user's role
+     * @return the credential
+     * @throws IOException when there is no credential, or for any IO error
+     */
+    private static Credential lookup(String instanceName, String role) throws IOException {
+        long start = ConnectionMetrics.start();
+        Credential credential = null;
+        try {
+            credential = CredentialStore.getDefault().lookup(instanceName, role);
+        } finally {
+            // a lookup of no credential counts against the metrics kept already, but starts none of its own
+            if (credential != null || ConnectionMetrics.get(instanceName, role) != null)
+                ConnectionMetrics.record(instanceName, role, ConnectionMetrics.Stage.STORE, start,
+                        credential != null);
+        }
+        if (credential == null) throw new IOException("credentials for " + instanceName + " and " + role + " not found");
+        return credential;
     }
 
     /**
      * Establishes a Connection to the Application Standalone Database
+     * <p>The database is booted once and its connections pooled (see {@link DerbyDatabase}); closing the
+     * connection returns it to the pool.</p>
      *
      * @param application the Application Name
      * @return The Connection
@@ -373,11 +471,19 @@ public class OperatingSystem {
      * @throws SQLException when the connection fails
      */
     public static Connection getApplicationConnection(String application) throws IOException, SQLException {
-        Path applicationHome = getApplicationHome(application);
-        String connectionString = "jdbc:derby:" + applicationHome + "/database;create=true";
-        return DriverManager.getConnection(connectionString);
+        return DerbyDatabase.directory(getApplicationHome(application).resolve("database")).getConnection();
     }
 
-    // TODO Add a generic Derby Connection using DB Location
-    // TODO Consider adding certain properties
+    /**
+     * Establishes a Connection to the embedded Derby database in a directory, created when it does not exist
+     * <p>The database is booted once and its connections pooled; see {@link DerbyDatabase} for in-memory, class path
+     * and jar databases, and for shutting a database down.</p>
+     *
+     * @param location the directory of the database
+     * @return The Connection
+     * @throws SQLException when the connection fails
+     */
+    public static Connection getDerbyConnection(Path location) throws SQLException {
+        return DerbyDatabase.directory(location).getConnection();
+    }
 }
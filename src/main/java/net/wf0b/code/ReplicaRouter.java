@@ -0,0 +1,149 @@
+package net.wf0b.code;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes connections between a primary and its replicas: credentials whose {@link Credential#getReplicaOf()} names
+ * the instance name of the primary, under the same role.
+ * <p>A write always goes to the primary. A read is spread across the replicas, by round-robin or, when the system
+ * property <code>ConnectionCredential.route</code> is <code>least-outstanding</code>, to the replica with the fewest
+ * connections open; a replica that fails is passed over for the next, and the primary serves a read only when
+ * there are no replicas or every replica fails. Each connection is made read-only for a read, and writable for a
+ * write.</p>
+ */
+final class ReplicaRouter {
+
+    /**
+     * The next replica for a round-robin read, by primary.
+     */
+    private static final ConcurrentHashMap<CredentialKey, AtomicInteger> CURSORS = new ConcurrentHashMap<>();
+
+    /**
+     * The connections open, by replica.
+     */
+    private static final ConcurrentHashMap<CredentialKey, AtomicInteger> OUTSTANDING = new ConcurrentHashMap<>();
+
+    /**
+     * Not instantiated
+     */
+    private ReplicaRouter() {
+    }
+
+    /**
+     * Gets a connection for an intent
+     *
+     * @param primary    the primary
+     * @param replicas   the replicas of the primary
+     * @param intent     what the connection is for
+     * @param properties the non-user, non-password attributes or properties of the connection
+     * @return the connection
+     * @throws SQLException when the connection fails
+     */
+    static Connection route(Credential primary, List<Credential> replicas, Intent intent, Properties properties)
+            throws SQLException {
+        if (intent == Intent.WRITE || replicas.isEmpty()) return prepare(primary.acquire(properties), intent);
+        int count = replicas.size();
+        int first = Math.floorMod(CURSORS.computeIfAbsent(CredentialKey.of(primary), k -> new AtomicInteger())
+                .getAndIncrement(), count);
+        boolean least = "least-outstanding".equalsIgnoreCase(System.getProperty("ConnectionCredential.route"));
+        if (least) {
+            int fewest = Integer.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                int index = (first + i) % count;
+                int outstanding = outstanding(replicas.get(index)).get();
+                if (outstanding < fewest) {
+                    fewest = outstanding;
+                    first = index;
+                }
+            }
+        }
+        SQLException failure = null;
+        for (int i = 0; i < count; i++) {
+            Credential replica = replicas.get((first + i) % count);
+            try {
+                Connection connection = prepare(replica.acquire(properties), intent);
+                return least ? counted(connection, outstanding(replica)) : connection;
+            } catch (SQLException e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+        try {
+            return prepare(primary.acquire(properties), intent);
+        } catch (SQLException e) {
+            e.addSuppressed(failure);
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of connections open to a replica
+     *
+     * @param replica the replica
+     * @return the number of connections open
+     */
+    static AtomicInteger outstanding(Credential replica) {
+        return OUTSTANDING.computeIfAbsent(CredentialKey.of(replica), k -> new AtomicInteger());
+    }
+
+    /**
+     * Makes a connection read-only for a read, and writable for a write
+     *
+     * @param connection the connection
+     * @param intent     what the connection is for
+     * @return the connection
+     * @throws SQLException when the connection fails, having closed it
+     */
+    private static Connection prepare(Connection connection, Intent intent) throws SQLException {
+        try {
+            connection.setReadOnly(intent == Intent.READ);
+            return connection;
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Counts a connection as open until it is closed
+     *
+     * @param connection  the connection
+     * @param outstanding the number of connections open
+     * @return the counted connection
+     */
+    private static Connection counted(Connection connection, AtomicInteger outstanding) {
+        outstanding.incrementAndGet();
+        AtomicBoolean closed = new AtomicBoolean(false);
+        InvocationHandler handler = (Object proxy, Method method, Object[] args) -> {
+            switch (method.getName()) {
+                case "close":
+                    if (closed.compareAndSet(false, true)) outstanding.decrementAndGet();
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Counted " + connection;
+                default:
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                handler);
+    }
+}
@@ -0,0 +1,335 @@
+package net.wf0b.code;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of prepared statements for one physical connection, keyed by SQL text and bounded, the least recently
+ * used statement being closed first.
+ * <p>A credential with a statement cache size (see {@link Credential#setStatementCacheSize(int)}) wraps each
+ * physical connection it opens; with pooling, the cache lives as long as the pooled connection. Preparing the same
+ * SQL again takes the statement from the cache rather than parsing it again on the client and the server; closing
+ * a statement closes its open result, clears its parameters, batch and warnings, restores its limits and fetch size
+ * to those it was prepared with, and returns it to the cache. A statement is handed to one user at a time, so
+ * preparing SQL whose statement is in use prepares another. Only {@link Connection#prepareStatement(String)} is
+ * cached.</p>
+ * <p>Hits and misses are counted for each instance name and role, see {@link #get(String, String)}.</p>
+ */
+final class StatementCache implements InvocationHandler {
+
+    /**
+     * The counts, by credential.
+     */
+    private static final ConcurrentHashMap<CredentialKey, LongAdder[]> COUNTS = new ConcurrentHashMap<>();
+
+    /**
+     * The physical connection.
+     */
+    private final Connection connection;
+
+    /**
+     * The hits and misses of the credential.
+     */
+    private final LongAdder[] counts;
+
+    /**
+     * The idle statements, least recently used first.
+     */
+    private final LinkedHashMap<String, Prepared> idle;
+
+    /**
+     * The wrapped connection, handed out.
+     */
+    private Connection proxy;
+
+    /**
+     * The counts of a credential's statement caches.
+     *
+     * @param hits   the statements taken from a cache
+     * @param misses the statements prepared
+     */
+    record Counts(long hits, long misses) {
+    }
+
+    /**
+     * A prepared statement with the settings it had when prepared, restored when it is returned.
+     *
+     * @param statement      the statement
+     * @param maxRows        the maximum rows, as prepared
+     * @param maxFieldSize   the maximum field size, as prepared
+     * @param queryTimeout   the query timeout, as prepared
+     * @param fetchSize      the fetch size, as prepared
+     * @param fetchDirection the fetch direction, as prepared
+     */
+    private record Prepared(PreparedStatement statement, int maxRows, int maxFieldSize, int queryTimeout,
+                            int fetchSize, int fetchDirection) {
+
+        /**
+         * Records the settings of a statement just prepared
+         *
+         * @param statement the statement
+         * @return the statement with its settings
+         * @throws SQLException when the settings can not be read
+         */
+        private static Prepared of(PreparedStatement statement) throws SQLException {
+            return new Prepared(statement, statement.getMaxRows(), statement.getMaxFieldSize(),
+                    statement.getQueryTimeout(), statement.getFetchSize(), statement.getFetchDirection());
+        }
+    }
+
+    /**
+     * Instantiates a cache
+     *
+     * @param connection the physical connection
+     * @param size       the statements cached
+     * @param key        the credential
+     */
+    private StatementCache(Connection connection, int size, CredentialKey key) {
+        this.connection = connection;
+        this.counts = COUNTS.computeIfAbsent(key, k -> new LongAdder[]{new LongAdder(), new LongAdder()});
+        this.idle = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Prepared> eldest) {
+                if (size() <= size) return false;
+                closeQuietly(eldest.getValue().statement());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Wraps a physical connection in a statement cache
+     *
+     * @param connection the physical connection
+     * @param size       the statements cached
+     * @param key        the credential, for counting
+     * @return the wrapped connection
+     */
+    static Connection wrap(Connection connection, int size, CredentialKey key) {
+        StatementCache cache = new StatementCache(connection, size, key);
+        cache.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, cache);
+        return cache.proxy;
+    }
+
+    /**
+     * Gets the counts of a credential's statement caches
+     *
+     * @param instanceName the instance name
+     * @param role         the role
+     * @return the counts
+     */
+    static Counts get(String instanceName, String role) {
+        LongAdder[] result = COUNTS.get(new CredentialKey(instanceName, role));
+        return result == null ? new Counts(0, 0) : new Counts(result[0].sum(), result[1].sum());
+    }
+
+    /**
+     * Discards every count
+     */
+    static void clear() {
+        COUNTS.clear();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "prepareStatement":
+                if (args.length == 1) return prepare((String) args[0]);
+                break;
+            case "close":
+                closeAll();
+                break;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Caching " + connection;
+            default:
+        }
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Takes the statement for SQL from the cache, or prepares it
+     *
+     * @param sql the SQL
+     * @return the statement; closing it returns it to the cache
+     * @throws SQLException when the statement can not be prepared
+     */
+    private PreparedStatement prepare(String sql) throws SQLException {
+        Prepared prepared;
+        synchronized (idle) {
+            prepared = idle.remove(sql);
+        }
+        if (prepared != null && !prepared.statement().isClosed()) {
+            counts[0].increment();
+        } else {
+            counts[1].increment();
+            PreparedStatement statement = connection.prepareStatement(sql);
+            try {
+                prepared = Prepared.of(statement);
+            } catch (SQLException e) {
+                closeQuietly(statement);
+                throw e;
+            }
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new Lease(sql, prepared));
+    }
+
+    /**
+     * Returns a statement to the cache, restored to the state of a statement just prepared, or closes it when the
+     * connection is closed
+     *
+     * @param sql      the SQL
+     * @param prepared the statement
+     */
+    private void release(String sql, Prepared prepared) {
+        PreparedStatement statement = prepared.statement();
+        try {
+            if (connection.isClosed() || statement.isClosed()) {
+                closeQuietly(statement);
+                return;
+            }
+            reset(prepared);
+        } catch (SQLException e) {
+            closeQuietly(statement);
+            return;
+        }
+        Prepared replaced;
+        synchronized (idle) {
+            replaced = idle.put(sql, prepared);
+        }
+        if (replaced != null) closeQuietly(replaced.statement());
+    }
+
+    /**
+     * Restores a statement to the state it had when prepared, so that nothing its last user did carries over
+     *
+     * @param prepared the statement
+     * @throws SQLException when the statement can not be restored
+     */
+    private static void reset(Prepared prepared) throws SQLException {
+        PreparedStatement statement = prepared.statement();
+        ResultSet resultSet = statement.getResultSet();
+        if (resultSet != null) resultSet.close();
+        statement.clearParameters();
+        statement.clearBatch();
+        statement.clearWarnings();
+        // a driver may refuse a fetch size above the maximum rows, so the rows are restored first
+        if (statement.getMaxRows() != prepared.maxRows()) statement.setMaxRows(prepared.maxRows());
+        if (statement.getMaxFieldSize() != prepared.maxFieldSize()) statement.setMaxFieldSize(prepared.maxFieldSize());
+        if (statement.getQueryTimeout() != prepared.queryTimeout()) statement.setQueryTimeout(prepared.queryTimeout());
+        if (statement.getFetchSize() != prepared.fetchSize()) statement.setFetchSize(prepared.fetchSize());
+        if (statement.getFetchDirection() != prepared.fetchDirection())
+            statement.setFetchDirection(prepared.fetchDirection());
+    }
+
+    /**
+     * Closes the idle statements, the connection being closed
+     */
+    private void closeAll() {
+        List<Prepared> statements;
+        synchronized (idle) {
+            statements = new ArrayList<>(idle.values());
+            idle.clear();
+        }
+        for (Prepared prepared : statements) closeQuietly(prepared.statement());
+    }
+
+    /**
+     * Closes a statement, ignoring failure
+     *
+     * @param statement the statement
+     */
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // the statement is discarded regardless
+        }
+    }
+
+    /**
+     * The handler of a statement in use.
+     */
+    private final class Lease implements InvocationHandler {
+
+        /**
+         * The SQL.
+         */
+        private final String sql;
+
+        /**
+         * The statement.
+         */
+        private final PreparedStatement statement;
+
+        /**
+         * The statement with the settings it had when prepared.
+         */
+        private final Prepared prepared;
+
+        /**
+         * An indicator denoting the statement has been returned.
+         */
+        private final AtomicBoolean returned = new AtomicBoolean(false);
+
+        /**
+         * Instantiates the handler
+         *
+         * @param sql      the SQL
+         * @param prepared the statement with the settings it had when prepared
+         */
+        private Lease(String sql, Prepared prepared) {
+            this.sql = sql;
+            this.statement = prepared.statement();
+            this.prepared = prepared;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (returned.compareAndSet(false, true)) release(sql, prepared);
+                    return null;
+                case "isClosed":
+                    return returned.get() || statement.isClosed();
+                case "getConnection":
+                    return StatementCache.this.proxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached " + statement;
+                default:
+                    if (returned.get()) throw new SQLException("statement is closed");
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package net.wf0b.code;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Warms up the connections an application will use, so the first request after a start does not pay for reading the
+ * store, deriving the key, loading the drivers and the database handshakes.
+ * <p>The instance names and roles are declared in the system property <code>ConnectionCredential.warmup</code>, as
+ * a comma separated list of <code>instance:role</code> or <code>instance</code> (for the current user). For each,
+ * the warm-up loads the driver named in its credential, when on the class path, and opens and validates
+ * <code>ConnectionCredential.warmup.connections</code> connections (default 1) at once, all instances in parallel,
+ * then closes them; with pooling enabled (see {@link ConnectionPool}) they stay in the pool, ready for use.
+ * <code>ConnectionCredential.warmup.timeout</code> limits the time allowed each connection, in milliseconds (default
+ * 30000).</p>
+ * <p>Usage, at application start:</p>
+ * <pre>
+ * Map&lt;CredentialKey, WarmUp.Readiness&gt; readiness = WarmUp.run();
+ * </pre>
+ */
+public class WarmUp {
+
+    /**
+     * The readiness of the instance names and roles warmed up, in the order they were warmed up.
+     */
+    private static final Map<CredentialKey, Readiness> READINESS = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * The readiness of an instance name and role.
+     *
+     * @param key         the instance name and role
+     * @param ready       an indicator denoting every connection was opened and validated
+     * @param connections the number of connections opened and validated
+     * @param nanos       the time taken to warm up this instance name and role, in nanoseconds
+     * @param failure     the first failure, null when ready
+     */
+    public record Readiness(CredentialKey key, boolean ready, int connections, long nanos, Throwable failure) {
+    }
+
+    /**
+     * Not instantiated
+     */
+    private WarmUp() {
+    }
+
+    /**
+     * Gets the instance names and roles declared in the system properties
+     *
+     * @return the instance names and roles
+     */
+    public static List<CredentialKey> getDeclared() {
+        return parse(System.getProperty("ConnectionCredential.warmup", ""));
+    }
+
+    /**
+     * Parses a comma separated list of <code>instance:role</code> or <code>instance</code>
+     *
+     * @param declared the list
+     * @return the instance names and roles
+     */
+    static List<CredentialKey> parse(String declared) {
+        List<CredentialKey> result = new ArrayList<>();
+        for (String entry : declared.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) continue;
+            int colon = trimmed.lastIndexOf(':');
+            if (colon < 0) result.add(new CredentialKey(trimmed, OperatingSystem.getUser()));
+            else result.add(new CredentialKey(trimmed.substring(0, colon), trimmed.substring(colon + 1)));
+        }
+        return result;
+    }
+
+    /**
+     * Warms up the instance names and roles declared in the system properties
+     *
+     * @return the readiness, by instance name and role
+     */
+    public static Map<CredentialKey, Readiness> run() {
+        return run(getDeclared(), Integer.getInteger("ConnectionCredential.warmup.connections", 1),
+                Duration.ofMillis(Long.getLong("ConnectionCredential.warmup.timeout", 30000L)));
+    }
+
+    /**
+     * Warms up instance names and roles from the store
+     *
+     * @param keys        the instance names and roles
+     * @param connections the number of connections to open for each
+     * @param timeout     the time allowed each connection, null for no limit
+     * @return the readiness, by instance name and role
+     */
+    public static Map<CredentialKey, Readiness> run(Collection<CredentialKey> keys, int connections, Duration timeout) {
+        CredentialRegistry registry;
+        try {
+            registry = CredentialStore.getDefault().getRegistry();
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+            Map<CredentialKey, Readiness> result = new LinkedHashMap<>();
+            for (CredentialKey key : keys) result.put(key, new Readiness(key, false, 0, 0, e));
+            READINESS.putAll(result);
+            return result;
+        }
+        return run(registry, keys, connections, timeout);
+    }
+
+    /**
+     * Warms up instance names and roles from a registry
+     *
+     * @param registry    the registry
+     * @param keys        the instance names and roles
+     * @param connections the number of connections to open for each
+     * @param timeout     the time allowed each connection, null for no limit
+     * @return the readiness, by instance name and role
+     */
+    static Map<CredentialKey, Readiness> run(CredentialRegistry registry, Collection<CredentialKey> keys,
+                                             int connections, Duration timeout) {
+        OperatingSystem.getKey();
+
+        Map<CredentialKey, CompletableFuture<Readiness>> pending = new LinkedHashMap<>();
+        for (CredentialKey key : keys) pending.put(key, warmUp(registry, key, connections, timeout));
+
+        Map<CredentialKey, Readiness> result = new LinkedHashMap<>();
+        for (Map.Entry<CredentialKey, CompletableFuture<Readiness>> entry : pending.entrySet()) {
+            CredentialKey key = entry.getKey();
+            try {
+                result.put(key, entry.getValue().get());
+            } catch (ExecutionException e) {
+                result.put(key, new Readiness(key, false, 0, 0, e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.put(key, new Readiness(key, false, 0, 0, e));
+            }
+        }
+        READINESS.putAll(result);
+        return result;
+    }
+
+    /**
+     * Warms up an instance name and role, timed from its own start to its last connection validated
+     *
+     * @param registry    the registry
+     * @param key         the instance name and role
+     * @param connections the number of connections to open
+     * @param timeout     the time allowed each connection, null for no limit
+     * @return the future readiness
+     */
+    private static CompletableFuture<Readiness> warmUp(CredentialRegistry registry, CredentialKey key,
+                                                       int connections, Duration timeout) {
+        long start = System.nanoTime();
+        Credential credential = registry.get(key);
+        if (credential == null) {
+            return CompletableFuture.completedFuture(new Readiness(key, false, 0, System.nanoTime() - start,
+                    new IOException("credentials for " + key.instanceName() + " and " + key.role() + " not found")));
+        }
+        loadDriver(credential);
+        List<CompletableFuture<Throwable>> checks = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            checks.add(credential.getConnectionAsync(new Properties(), timeout)
+                    .handle((connection, e) -> e != null ? unwrap(e) : validate(connection, timeout)));
+        }
+        return CompletableFuture.allOf(checks.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            int valid = 0;
+            Throwable failure = null;
+            for (CompletableFuture<Throwable> check : checks) {
+                Throwable e = check.join();
+                if (e == null) valid++;
+                else if (failure == null) failure = e;
+            }
+            return new Readiness(key, failure == null, valid, System.nanoTime() - start, failure);
+        });
+    }
+
+    /**
+     * Validates a connection warmed up, then closes it
+     *
+     * @param connection the connection
+     * @param timeout    the time allowed, null for no limit
+     * @return the failure, null when the connection is valid
+     */
+    private static Throwable validate(Connection connection, Duration timeout) {
+        try (connection) {
+            if (connection.isValid(timeout == null ? 0 : (int) Math.max(1, timeout.toSeconds()))) return null;
+            return new SQLException("connection is not valid");
+        } catch (SQLException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Unwraps the failure of a future connection
+     *
+     * @param e the failure, as completed
+     * @return the cause
+     */
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /**
+     * Gets the readiness of an instance name and role
+     *
+     * @param instanceName the instance name
+     * @param role         the role
+     * @return the readiness, null when it has not been warmed up
+     */
+    public static Readiness getReadiness(String instanceName, String role) {
+        return READINESS.get(new CredentialKey(instanceName, role));
+    }
+
+    /**
+     * Gets the readiness of every instance name and role warmed up
+     *
+     * @return the readiness, by instance name and role
+     */
+    public static Map<CredentialKey, Readiness> getReadiness() {
+        synchronized (READINESS) {
+            return new LinkedHashMap<>(READINESS);
+        }
+    }
+
+    /**
+     * Loads the driver for a credential, preferring the driver named in it (see {@link DriverCache})
+     *
+     * @param credential the credential
+     */
+    private static void loadDriver(Credential credential) {
+        try {
+            DriverCache.get(credential.getDriverName(), credential.getConnectionString());
+        } catch (SQLException e) {
+            // reported when connecting
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("BulkCommand Unit Test")
+class BulkCommandTest {
+
+    @TempDir
+    Path home;
+
+    private String userHome;
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("BulkCommand")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @BeforeEach
+    void setUp() {
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setProperty("user.home", userHome);
+    }
+
+    @DetailTest
+    @DisplayName("BulkRecord.splitCsv() handles quoted fields")
+    void splitCsv() {
+        assertEquals(List.of("add", "a,b", "say \"hi\"", ""), BulkRecord.splitCsv("add,\"a,b\",\"say \"\"hi\"\"\","));
+        assertThrows(IllegalArgumentException.class, () -> BulkRecord.splitCsv("add,\"open"));
+        BulkRecord record = BulkRecord.parse("change,i,,d,\"jdbc:x;a=1,b=2\",p\"w", BulkRecord.Format.CSV);
+        assertNull(record.role);
+        assertEquals("jdbc:x;a=1,b=2", record.string);
+        assertEquals(record.string, BulkRecord.parse(record.format(BulkRecord.Format.CSV), BulkRecord.Format.CSV).string);
+        assertNull(BulkRecord.parse(BulkRecord.HEADER, BulkRecord.Format.CSV));
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionCredential bulk applies records in order and writes the store once")
+    void bulk() throws IOException {
+        Path csv = home.resolve("records.csv");
+        Files.writeString(csv, BulkRecord.HEADER + "\n"
+                + "add,one,,driver,string1,secret1\n"
+                + "add,two,dbadmin,driver,string2,secret2\n"
+                + "add,three,,driver,string3,secret3\n"
+                + "change,one,,driver,string1b,secret1b\n"
+                + "delete,three,,,,\n"
+                + "add,two,dbadmin,driver,string2,secret2\n"
+                + "bogus,four,,,,\n");
+        assertEquals(1, new CommandLine(new ConnectionCredential()).execute("bulk", csv.toString()));
+
+        CredentialStore store = CredentialStore.getDefault();
+        assertEquals(2, store.getVersion());
+        Credentials credentials = store.read();
+        assertEquals(2, credentials.size());
+        assertEquals("string1b", credentials.get("one").getConnectionString());
+        assertEquals("secret1b", credentials.get("one").getCred());
+        assertEquals("secret2", credentials.get("two", "dbadmin").getCred());
+        assertNull(credentials.get("three"));
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionCredential export writes records bulk reads")
+    void export() throws IOException {
+        Path json = home.resolve("records.jsonl");
+        Files.writeString(json, "{\"action\":\"add\",\"instance\":\"one\",\"driver\":\"d\",\"string\":\"s,1\",\"password\":\"p1\"}\n");
+        assertEquals(0, new CommandLine(new ConnectionCredential()).execute("bulk", json.toString()));
+
+        Path exported = home.resolve("exported.csv");
+        assertEquals(0, new CommandLine(new ConnectionCredential()).execute("export", "-P", exported.toString()));
+        List<String> lines = Files.readAllLines(exported);
+        assertEquals(List.of(BulkRecord.HEADER, "add,one," + OperatingSystem.getUser() + ",d,\"s,1\",p1,,,"), lines);
+
+        assertEquals(0, new CommandLine(new ConnectionCredential()).execute("export", exported.toString()));
+        assertEquals("add,one," + OperatingSystem.getUser() + ",d,\"s,1\",,,,", Files.readAllLines(exported).get(1));
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionCredential export and bulk keep the endpoints, primary and statement cache")
+    void exportSettings() throws IOException {
+        CredentialStore store = CredentialStore.getDefault();
+        Credential replica = new Credential("replica", "d", "s1", new char[]{'p', 'w'});
+        replica.setEndpoints(List.of("s2", "s3"));
+        replica.setReplicaOf("primary");
+        replica.setStatementCacheSize(16);
+        store.put(replica);
+
+        for (String format : List.of("CSV", "JSON")) {
+            Path exported = home.resolve("exported." + format);
+            assertEquals(0, new CommandLine(new ConnectionCredential()).execute("export", "-P", "-f", format,
+                    exported.toString()));
+            Files.writeString(exported, Files.readString(exported).replace("\"add\"", "\"change\"")
+                    .replace("add,", "change,"));
+            assertEquals(0, new CommandLine(new ConnectionCredential()).execute("bulk", "-f", format,
+                    exported.toString()));
+            Credential read = store.read().get("replica");
+            assertEquals(List.of("s1", "s2", "s3"), read.getEndpoints());
+            assertEquals("primary", read.getReplicaOf());
+            assertEquals(16, read.getStatementCacheSize());
+            assertEquals("pw", read.getCred());
+        }
+        BulkRecord old = BulkRecord.parse("add,i,,d,s,p", BulkRecord.Format.CSV);
+        assertNull(old.endpoints);
+        assertNull(old.statementCacheSize);
+        assertThrows(IllegalArgumentException.class, () -> BulkRecord.parse("add,i,,d,s,p,,,many", BulkRecord.Format.CSV));
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionCredential bulk reads a quoted field export wrote across lines")
+    void exportLineBreak() throws IOException {
+        assertTrue(BulkRecord.isOpen("add,one,,d,\"s"));
+        assertTrue(BulkRecord.isOpen("add,one,,d,\"s\"\""));
+        assertFalse(BulkRecord.isOpen("add,one,,d,\"s\"\"\",p"));
+        assertFalse(BulkRecord.isOpen("add,one,,d,s\",p"));
+
+        Path json = home.resolve("records.jsonl");
+        Files.writeString(json, "{\"action\":\"add\",\"instance\":\"one\",\"driver\":\"d\",\"string\":\"s\\n1\",\"password\":\"p1\"}\n");
+        assertEquals(0, new CommandLine(new ConnectionCredential()).execute("bulk", json.toString()));
+        Path exported = home.resolve("exported.csv");
+        assertEquals(0, new CommandLine(new ConnectionCredential()).execute("export", "-P", exported.toString()));
+
+        Files.writeString(exported, Files.readString(exported).replace("add,", "change,") + "add,two,,d,s2,p2\n");
+        assertEquals(0, new CommandLine(new ConnectionCredential()).execute("bulk", exported.toString()));
+        Credentials credentials = CredentialStore.getDefault().read();
+        assertEquals("s\n1", credentials.get("one").getConnectionString());
+        assertEquals("s2", credentials.get("two").getConnectionString());
+    }
+}
@@ -12,6 +12,7 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -33,13 +34,22 @@ class ConnectionCredentialTest {
     @DetailTest
     @DisplayName("ConnectionCredential -V")
     void mainVersion() {
-        ConnectionCredential.main(new String[]{"-V"});
+        assertEquals(0, ConnectionCredential.run("-V"));
     }
 
     @DetailTest
     @DisplayName("ConnectionCredential -h")
     void mainHelp() {
-        ConnectionCredential.main(new String[]{"-h"});
+        assertEquals(0, ConnectionCredential.run("-h"));
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionCredential reports a usage error, and a subcommand's failure, in its status")
+    void mainStatus() throws IOException {
+        assertEquals(2, ConnectionCredential.run("--no-such-option"));
+        assertEquals(2, ConnectionCredential.run("-d", "minnieDriver"));
+        Path missing = Paths.get(OperatingSystem.getApplicationHome("ConnectionCredential").toString(), "missing.csv");
+        assertEquals(1, ConnectionCredential.run("bulk", missing.toString()));
     }
 
     @DetailTest
@@ -49,33 +59,45 @@ class ConnectionCredentialTest {
         File file = path.toFile();
         if (file.exists()) file.delete();
 
-        ConnectionCredential.main(new String[]{"-i", "instanceName", "-d", "minnieDriver", "-s", "connectmeup", "-p", "password"});
+        assertEquals(0, ConnectionCredential.run("-i", "instanceName", "-d", "minnieDriver", "-s", "connectmeup", "-p", "password"));
         String credentials = gson.toJson(OperatingSystem.getCredentials());
         //System.out.println("Add: " + credentials);
         assertEquals("{\"1036255499\":{\"instanceName\":\"instanceName\",\"connectionString\":\"connectmeup\",\"driverName\":\"minnieDriver\",\"user\":\"wgfra\",\"password\":\"2wF0ESWAXqQzyuAVC7SmHA\\u003d\\u003d\",\"active\":true}}", credentials);
 
-        ConnectionCredential.main(new String[]{"-i", "instanceName", "-d", "minnieDriver", "-s", "connectmeup", "-p", "password"});
+        assertEquals(0, ConnectionCredential.run("-i", "instanceName", "-d", "minnieDriver", "-s", "connectmeup", "-p", "password"));
         credentials = gson.toJson(OperatingSystem.getCredentials());
         //System.out.println("Add Duplicate: " + credentials);
         assertEquals("{\"1036255499\":{\"instanceName\":\"instanceName\",\"connectionString\":\"connectmeup\",\"driverName\":\"minnieDriver\",\"user\":\"wgfra\",\"password\":\"2wF0ESWAXqQzyuAVC7SmHA\\u003d\\u003d\",\"active\":true}}", credentials);
 
-        ConnectionCredential.main(new String[]{"-i", "instanceName2", "-d", "babyDriver", "-s", "connectmeup", "-p", "password"});
+        assertEquals(0, ConnectionCredential.run("-i", "instanceName2", "-d", "babyDriver", "-s", "connectmeup", "-p", "password"));
         credentials = gson.toJson(OperatingSystem.getCredentials());
         //System.out.println("Add2: " + credentials);
         assertEquals("{\"1036255499\":{\"instanceName\":\"instanceName\",\"connectionString\":\"connectmeup\",\"driverName\":\"minnieDriver\",\"user\":\"wgfra\",\"password\":\"2wF0ESWAXqQzyuAVC7SmHA\\u003d\\u003d\",\"active\":true},\"1817471549\":{\"instanceName\":\"instanceName2\",\"connectionString\":\"connectmeup\",\"driverName\":\"babyDriver\",\"user\":\"wgfra\",\"password\":\"2wF0ESWAXqQzyuAVC7SmHA\\u003d\\u003d\",\"active\":true}}", credentials);
 
 
-        ConnectionCredential.main(new String[]{"-i", "instanceName", "-x"});
+        assertEquals(0, ConnectionCredential.run("-i", "instanceName", "-x"));
         credentials = gson.toJson(OperatingSystem.getCredentials());
         //System.out.println("Delete: " + credentials);
-        assertEquals("{\"1036255499\":{\"instanceName\":\"instanceName\",\"connectionString\":\"connectmeup\",\"driverName\":\"minnieDriver\",\"user\":\"wgfra\",\"password\":\"2wF0ESWAXqQzyuAVC7SmHA\\u003d\\u003d\",\"active\":true},\"1817471549\":{\"instanceName\":\"instanceName2\",\"connectionString\":\"connectmeup\",\"driverName\":\"babyDriver\",\"user\":\"wgfra\",\"password\":\"2wF0ESWAXqQzyuAVC7SmHA\\u003d\\u003d\",\"active\":true}}", credentials);
+        assertEquals("{\"1817471549\":{\"instanceName\":\"instanceName2\",\"connectionString\":\"connectmeup\",\"driverName\":\"babyDriver\",\"user\":\"wgfra\",\"password\":\"2wF0ESWAXqQzyuAVC7SmHA\\u003d\\u003d\",\"active\":true}}", credentials);
 
 
-        ConnectionCredential.main(new String[]{"-c", "-i", "instanceName2", "-d", "miniDriver", "-s", "connectmeup", "-p", "password"});
+        assertEquals(0, ConnectionCredential.run("-c", "-i", "instanceName2", "-d", "miniDriver", "-s", "connectmeup", "-p", "password"));
         credentials = gson.toJson(OperatingSystem.getCredentials());
         //System.out.println("Change: " + credentials);
-        assertEquals("{\"1036255499\":{\"instanceName\":\"instanceName\",\"connectionString\":\"connectmeup\",\"driverName\":\"minnieDriver\",\"user\":\"wgfra\",\"password\":\"2wF0ESWAXqQzyuAVC7SmHA\\u003d\\u003d\",\"active\":true},\"1817471549\":{\"instanceName\":\"instanceName2\",\"connectionString\":\"connectmeup\",\"driverName\":\"miniDriver\",\"user\":\"wgfra\",\"password\":\"2wF0ESWAXqQzyuAVC7SmHA\\u003d\\u003d\",\"active\":true}}", credentials);
+        assertEquals("{\"1817471549\":{\"instanceName\":\"instanceName2\",\"connectionString\":\"connectmeup\",\"driverName\":\"miniDriver\",\"user\":\"wgfra\",\"password\":\"2wF0ESWAXqQzyuAVC7SmHA\\u003d\\u003d\",\"active\":true}}", credentials);
 
     }
 
+    @DetailTest
+    @DisplayName("ConnectionCredential -i instanceName -r role -x appends a tombstone to the journal")
+    void mainDelete() throws IOException {
+        Path path = Paths.get(OperatingSystem.getApplicationHome("ConnectionCredential").toString(), ".credentials");
+        Path journal = path.resolveSibling(".credentials.journal");
+        assertEquals(0, ConnectionCredential.run("-i", "deleted", "-r", "dbadmin", "-d", "minnieDriver", "-s", "connectmeup", "-p", "password"));
+        assertTrue(OperatingSystem.getCredentials().containsKey("deleted", "dbadmin"));
+
+        assertEquals(0, ConnectionCredential.run("-i", "deleted", "-r", "dbadmin", "-x"));
+        assertFalse(OperatingSystem.getCredentials().containsKey("deleted", "dbadmin"));
+        assertTrue(Files.readString(journal).contains("{\"instanceName\":\"deleted\",\"user\":\"dbadmin\"}"));
+    }
 }
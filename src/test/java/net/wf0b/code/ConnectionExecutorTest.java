@@ -0,0 +1,101 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("ConnectionExecutor Unit Test")
+class ConnectionExecutorTest {
+
+    private static final String URL = "jdbc:derby:memory:ConnectionExecutorTest;create=true";
+
+    private static final Credential CREDENTIAL = new Credential("ConnectionExecutorTest",
+            "org.apache.derby.jdbc.EmbeddedDriver", URL, new char[]{'p', 'w'});
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("ConnectionExecutor")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @DetailTest
+    @DisplayName("Credential.getConnectionAsync() connects off the calling thread")
+    void connects() throws Exception {
+        CompletableFuture<Connection> first = CREDENTIAL.getConnectionAsync(new Properties(), Duration.ofSeconds(30));
+        CompletableFuture<Connection> second = CREDENTIAL.getConnectionAsync(new Properties(), null);
+        try (Connection a = first.get(); Connection b = second.get()) {
+            assertTrue(a.isValid(5));
+            assertTrue(b.isValid(5));
+        }
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionExecutor.submit() times out and closes the connection acquired late")
+    void timesOut() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Connection> late = new AtomicReference<>();
+        CompletableFuture<Connection> future = ConnectionExecutor.submit(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // acquire regardless, as a driver ignoring the interrupt would
+            }
+            late.set(DriverManager.getConnection(URL));
+            return late.get();
+        }, Duration.ofMillis(50));
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        release.countDown();
+        for (int i = 0; i < 100 && (late.get() == null || !late.get().isClosed()); i++) Thread.sleep(50);
+        assertTrue(late.get().isClosed());
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionExecutor.submit() interrupts a cancelled acquisition")
+    void cancels() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<Connection> future = ConnectionExecutor.submit(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(60000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return null;
+        }, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(future.cancel(true));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @DetailTest
+    @DisplayName("Credentials.getConnectionAsync() fails for a missing credential")
+    void missing() {
+        CompletableFuture<Connection> future = new Credentials().getConnectionAsync("ConnectionExecutorMissing",
+                OperatingSystem.getUser(), new Properties(), null);
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(IOException.class, e.getCause());
+    }
+}
@@ -0,0 +1,120 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("ConnectionMetrics Unit Test")
+class ConnectionMetricsTest {
+
+    private static final Credential CREDENTIAL = new Credential("ConnectionMetricsTest",
+            "org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:ConnectionMetricsTest;create=true",
+            new char[]{'p', 'w'});
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("ConnectionMetrics")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @BeforeEach
+    void setUp() {
+        ConnectionMetrics.setEnabled(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ConnectionMetrics.setEnabled(false);
+        ConnectionMetrics.clear();
+    }
+
+    @DetailTest
+    @DisplayName("Credential.openConnection() records the decrypt, driver and connect stages")
+    void stages() throws SQLException {
+        ConnectionMetrics.clear();
+        try (Connection connection = CREDENTIAL.openConnection(new Properties())) {
+            assertNotNull(connection);
+        }
+        ConnectionMetrics.Snapshot snapshot = ConnectionMetrics.get("ConnectionMetricsTest", OperatingSystem.getUser())
+                .snapshot();
+        for (ConnectionMetrics.Stage stage : new ConnectionMetrics.Stage[]{ConnectionMetrics.Stage.DECRYPT,
+                ConnectionMetrics.Stage.DRIVER, ConnectionMetrics.Stage.CONNECT}) {
+            assertEquals(1, snapshot.get(stage).count());
+            assertEquals(0, snapshot.get(stage).failures());
+            assertTrue(snapshot.get(stage).percentileNanos(99) >= snapshot.get(stage).meanNanos());
+        }
+        assertEquals(0, snapshot.get(ConnectionMetrics.Stage.STORE).count());
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionMetrics counts failures and publishes an MBean")
+    void failures() throws JMException {
+        Credential unknown = new Credential("ConnectionMetricsFailure", "none", "jdbc:none:ConnectionMetricsFailure",
+                new char[]{'p', 'w'});
+        assertThrows(SQLException.class, () -> unknown.openConnection(new Properties()));
+        ConnectionMetrics.StageSnapshot driver = ConnectionMetrics.get("ConnectionMetricsFailure",
+                OperatingSystem.getUser()).snapshot().get(ConnectionMetrics.Stage.DRIVER);
+        assertEquals(1, driver.count());
+        assertEquals(1, driver.failures());
+
+        ObjectName name = new ObjectName("net.wf0b.code:type=ConnectionMetrics,instance="
+                + ObjectName.quote("ConnectionMetricsFailure") + ",role=" + ObjectName.quote(OperatingSystem.getUser()));
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        ConnectionMetrics.clear();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @DetailTest
+    @DisplayName("OperatingSystem.getConnection() of no credential starts no metrics")
+    void missing() throws JMException {
+        assertThrows(IOException.class,
+                () -> OperatingSystem.getConnection("ConnectionMetricsMissing", new Properties()));
+        assertNull(ConnectionMetrics.get("ConnectionMetricsMissing", OperatingSystem.getUser()));
+        ObjectName name = new ObjectName("net.wf0b.code:type=ConnectionMetrics,instance="
+                + ObjectName.quote("ConnectionMetricsMissing") + ",role="
+                + ObjectName.quote(OperatingSystem.getUser()));
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionMetrics records nothing when disabled")
+    void disabled() throws SQLException {
+        ConnectionMetrics.setEnabled(false);
+        assertEquals(0, ConnectionMetrics.start());
+        CREDENTIAL.openConnection(new Properties()).close();
+        assertNull(ConnectionMetrics.get("ConnectionMetricsTest", OperatingSystem.getUser()));
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionMetrics.StageSnapshot.percentileNanos() gives the bucket upper bound")
+    void percentile() {
+        long[] histogram = new long[Long.SIZE];
+        histogram[3] = 90;
+        histogram[10] = 10;
+        ConnectionMetrics.StageSnapshot snapshot = new ConnectionMetrics.StageSnapshot(100, 0, 100, histogram);
+        assertEquals(15, snapshot.percentileNanos(50));
+        assertEquals(2047, snapshot.percentileNanos(99));
+        assertEquals(1, snapshot.meanNanos());
+        ConnectionMetrics.StageSnapshot empty = new ConnectionMetrics.StageSnapshot(0, 0, 0, new long[Long.SIZE]);
+        assertEquals(0, empty.meanNanos());
+        assertEquals(0, empty.percentileNanos(99));
+    }
+}
@@ -0,0 +1,151 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("ConnectionPool Unit Test")
+class ConnectionPoolTest {
+
+    private static final String URL = "jdbc:derby:memory:ConnectionPoolTest;create=true";
+
+    private static final Credential CREDENTIAL = new Credential("ConnectionPoolTest",
+            "org.apache.derby.jdbc.EmbeddedDriver", URL, new char[]{'p', 'w'});
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("ConnectionPool")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @AfterAll
+    static void tearDown() {
+        ConnectionPool.setPooled(false);
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionPool.borrow() reuses the physical connection")
+    void borrowReuses() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(() -> DriverManager.getConnection(URL), "reuse", 0, 2, 1000, 5, 60000);
+        Connection first = pool.borrow();
+        Connection physical = first.getMetaData().getConnection();
+        first.close();
+        assertTrue(first.isClosed());
+        assertEquals(1, pool.getIdle());
+
+        Connection second = pool.borrow();
+        assertSame(physical, second.getMetaData().getConnection());
+        assertEquals(1, pool.getActive());
+        second.close();
+        pool.close();
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionPool.borrow() times out at the maximum size")
+    void borrowTimesOut() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(() -> DriverManager.getConnection(URL), "timeout", 0, 1, 50, 5, 60000);
+        Connection held = pool.borrow();
+        assertThrows(SQLTimeoutException.class, pool::borrow);
+        held.close();
+        pool.borrow().close();
+        pool.close();
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionPool.borrow() discards expired connections")
+    void borrowExpires() throws SQLException, InterruptedException {
+        ConnectionPool pool = new ConnectionPool(() -> DriverManager.getConnection(URL), "expire", 0, 1, 1000, 5, 1);
+        Connection first = pool.borrow();
+        Connection physical = first.getMetaData().getConnection();
+        Thread.sleep(5);
+        first.close();
+        assertEquals(0, pool.getIdle());
+        Connection second = pool.borrow();
+        assertNotSame(physical, second.getMetaData().getConnection());
+        assertTrue(physical.isClosed());
+        second.close();
+        pool.close();
+    }
+
+    @DetailTest
+    @DisplayName("Credential.getConnection() when pooled")
+    void credentialPooled() throws SQLException {
+        ConnectionPool.setPooled(true);
+        Connection first = CREDENTIAL.getConnection(new Properties());
+        Connection physical = first.getMetaData().getConnection();
+        first.close();
+        Connection second = CREDENTIAL.getConnection(new Properties());
+        assertSame(physical, second.getMetaData().getConnection());
+        second.close();
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionPool.of() keeps a pool for each set of connection properties")
+    void poolPerProperties() {
+        Properties readOnly = new Properties();
+        readOnly.setProperty("readonly", "true");
+        ConnectionPool plain = ConnectionPool.of(CREDENTIAL, new Properties());
+        ConnectionPool other = ConnectionPool.of(CREDENTIAL, readOnly);
+        assertNotSame(plain, other);
+        Properties same = new Properties();
+        same.setProperty("readonly", "true");
+        assertSame(other, ConnectionPool.of(CREDENTIAL, same));
+        same.setProperty("readonly", "false");
+        assertSame(other, ConnectionPool.of(CREDENTIAL, readOnly));
+        assertNotSame(other, ConnectionPool.of(CREDENTIAL, same));
+        ConnectionPool.closeAll();
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionPool.of() replaces the pool when a setting of the credential changes")
+    void poolPerSignature() {
+        Credential credential = new Credential("ConnectionPoolTest", "org.apache.derby.jdbc.EmbeddedDriver", URL,
+                new char[]{'p', 'w'});
+        ConnectionPool plain = ConnectionPool.of(credential, new Properties());
+        assertSame(plain, ConnectionPool.of(credential, new Properties()));
+        credential.setStatementCacheSize(4);
+        ConnectionPool cached = ConnectionPool.of(credential, new Properties());
+        assertNotSame(plain, cached);
+        Credential other = new Credential("ConnectionPoolTest", "org.apache.derby.iapi.jdbc.AutoloadedDriver", URL,
+                new char[]{'p', 'w'});
+        assertNotEquals(ConnectionPool.signature(credential), ConnectionPool.signature(other));
+        ConnectionPool.closeAll();
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionPool keeps idle and borrowed connections within the maximum size")
+    void minIdleBounded() throws SQLException, InterruptedException {
+        AtomicInteger opened = new AtomicInteger();
+        ConnectionPool pool = new ConnectionPool(() -> {
+            opened.incrementAndGet();
+            return DriverManager.getConnection(URL);
+        }, "bounded", 2, 2, 50, 5, 60000);
+        Connection first = pool.borrow();
+        Connection second = pool.borrow();
+        Thread.sleep(200);
+        assertTrue(opened.get() <= 2, "opened " + opened.get());
+        assertThrows(SQLTimeoutException.class, pool::borrow);
+        assertEquals(2, pool.getActive() + pool.getIdle());
+        first.close();
+        second.close();
+        assertEquals(2, pool.getIdle());
+        assertEquals(0, pool.getActive());
+        pool.close();
+    }
+}
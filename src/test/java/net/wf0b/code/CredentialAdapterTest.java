@@ -0,0 +1,77 @@
+package net.wf0b.code;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("CredentialAdapter Unit Test")
+class CredentialAdapterTest {
+
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Credential.class, new CredentialAdapter(null)).create();
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("CredentialAdapter")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @DetailTest
+    @DisplayName("CredentialAdapter writes the JSON Gson writes by reflection, and reads it back")
+    void roundTrip() {
+        Credential plain = new Credential("adapter", "org.apache.derby.jdbc.EmbeddedDriver",
+                "jdbc:derby:memory:adapter;a=<b>", new char[]{'p', 'w'}, "dbadmin");
+        Credential full = new Credential("adapter", "org.apache.derby.jdbc.EmbeddedDriver",
+                "jdbc:derby:memory:adapter", new char[]{'p', 'w'});
+        full.setEndpoints(List.of("jdbc:derby:memory:second"));
+        full.setReplicaOf("primary");
+        full.setStatementCacheSize(50);
+        for (Credential credential : List.of(plain, full)) {
+            String json = GSON.toJson(credential);
+            assertEquals(new Gson().toJson(credential), json);
+            Credential read = GSON.fromJson(json, Credential.class);
+            assertEquals(json, GSON.toJson(read));
+            assertEquals("pw", read.getCred());
+        }
+        Credential inactive = new Credential("gone", null, null, "dbadmin", null, false);
+        assertEquals(new Gson().toJson(inactive), GSON.toJson(inactive));
+        assertFalse(GSON.fromJson(GSON.toJson(inactive), Credential.class).isActive());
+    }
+
+    @DetailTest
+    @DisplayName("CredentialAdapter shares repeated names and skips fields not known")
+    void compact() {
+        String json = "{\"instanceName\":\"a\",\"connectionString\":\"jdbc:a\",\"driverName\":\"org.Driver\","
+                + "\"future\":{\"x\":[1,2]},\"user\":\"dbadmin\",\"password\":null,\"active\":true}";
+        Credential first = GSON.fromJson(json, Credential.class);
+        Credential second = GSON.fromJson(json, Credential.class);
+        assertSame(first.getDriverName(), second.getDriverName());
+        assertSame(first.getAccount(), second.getAccount());
+        assertEquals("jdbc:a", first.getConnectionString());
+        assertNull(first.getCred());
+    }
+
+    @DetailTest
+    @DisplayName("CredentialAdapter skips the instance names its filter rejects, wherever the name comes")
+    void filter() throws IOException {
+        CredentialAdapter adapter = new CredentialAdapter("wanted"::equals);
+        assertNull(adapter.fromJson("{\"instanceName\":\"other\",\"connectionString\":\"jdbc:o\",\"active\":true}"));
+        assertNull(adapter.fromJson("{\"connectionString\":\"jdbc:o\",\"instanceName\":\"other\"}"));
+        assertNull(adapter.fromJson("{\"connectionString\":\"jdbc:o\"}"));
+        assertEquals("jdbc:w",
+                adapter.fromJson("{\"instanceName\":\"wanted\",\"connectionString\":\"jdbc:w\"}").getConnectionString());
+    }
+}
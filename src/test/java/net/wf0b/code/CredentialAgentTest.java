@@ -0,0 +1,108 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.sql.Connection;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("CredentialAgent Unit Test")
+class CredentialAgentTest {
+
+    @TempDir
+    Path home;
+
+    private String userHome;
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("CredentialAgent")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.toString());
+        CredentialStore.getDefault().put(new Credential("CredentialAgentTest", "org.apache.derby.jdbc.EmbeddedDriver",
+                "jdbc:derby:memory:CredentialAgentTest;create=true", new char[]{'s', 'e', 'c', 'r', 'e', 't'}));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setProperty("user.home", userHome);
+    }
+
+    @DetailTest
+    @DisplayName("CredentialAgent serves lookups and refuses a second agent")
+    void serves() throws Exception {
+        Path socket = home.resolve("agent.sock");
+        try (CredentialAgent agent = new CredentialAgent(socket, CredentialStore.getDefault())) {
+            agent.start();
+            assertThrows(IOException.class, () -> new CredentialAgent(socket, CredentialStore.getDefault()).start());
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+                assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(socket));
+            try (Stream<Path> files = Files.list(home)) {
+                assertTrue(files.noneMatch(file -> file.getFileName().toString().startsWith(".agent")));
+            }
+
+            CredentialAgent.Lookup lookup = CredentialAgent.lookup(socket, "CredentialAgentTest", OperatingSystem.getUser());
+            assertEquals("secret", lookup.password());
+            assertEquals("jdbc:derby:memory:CredentialAgentTest;create=true", lookup.connectionString());
+            assertNull(CredentialAgent.lookup(socket, "CredentialAgentMissing", OperatingSystem.getUser()));
+            assertEquals("null", agent.answer("not json"));
+            try (Connection connection = lookup.connect(new Properties())) {
+                assertTrue(connection.isValid(5));
+            }
+
+            // the store changes under the agent
+            CredentialStore.getDefault().put(new Credential("CredentialAgentTest", "org.apache.derby.jdbc.EmbeddedDriver",
+                    "jdbc:derby:memory:CredentialAgentTest;create=true", new char[]{'n', 'e', 'w'}));
+            CredentialStore.getDefault().invalidate();
+            assertEquals("new", CredentialAgent.lookup(socket, "CredentialAgentTest", OperatingSystem.getUser()).password());
+        }
+        assertFalse(Files.exists(socket));
+    }
+
+    @DetailTest
+    @DisplayName("CredentialAgent decrypts a credential of a binary store once")
+    void binary() throws IOException {
+        CredentialStore store = CredentialStore.getDefault();
+        store.convert(CredentialStore.Format.BINARY);
+        store.invalidate();
+        try (CredentialAgent agent = new CredentialAgent(home.resolve("binary.sock"), store)) {
+            String request = "{\"instanceName\":\"CredentialAgentTest\"}";
+            String answer = agent.answer(request);
+            assertTrue(answer.contains("\"password\":\"secret\""), answer);
+            assertSame(answer, agent.answer(request));
+        }
+    }
+
+    @DetailTest
+    @DisplayName("CredentialAgent.lookup() falls back to the store without an agent")
+    void fallback() throws IOException {
+        Path socket = home.resolve("none.sock");
+        assertEquals("secret", CredentialAgent.lookup(socket, "CredentialAgentTest", OperatingSystem.getUser()).password());
+        Files.createFile(socket);
+        assertEquals("secret", CredentialAgent.lookup(socket, "CredentialAgentTest", OperatingSystem.getUser()).password());
+        assertEquals("secret", CredentialAgent.lookup(socket, "CredentialAgentTest", null).password());
+    }
+}
@@ -0,0 +1,101 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("CredentialRegistry Unit Test")
+class CredentialRegistryTest {
+
+    @TempDir
+    Path folder;
+
+    /**
+     * "Aa" and "BB" have equal hash codes, so their credentials have equal identifiers.
+     */
+    private static final Credential AA = new Credential("Aa", "org.apache.derby.jdbc.EmbeddedDriver",
+            "jdbc:derby:memory:Aa", new char[]{'a', 'a'});
+
+    private static final Credential BB = new Credential("BB", "org.apache.derby.jdbc.EmbeddedDriver",
+            "jdbc:derby:memory:BB", new char[]{'b', 'b'});
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("CredentialRegistry")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @DetailTest
+    @DisplayName("CredentialKey.hash() matches the identifier")
+    void hash() {
+        for (String instanceName : List.of("", "a", "ConnectionCredential", "instance:with:colons"))
+            for (String role : List.of("", "self", "dbadmin", OperatingSystem.getUser()))
+                assertEquals((instanceName + ":" + role).hashCode(), CredentialKey.hash(instanceName, role));
+    }
+
+    @DetailTest
+    @DisplayName("CredentialRegistry keeps credentials whose identifiers collide")
+    void collision() {
+        assertEquals(AA.getIdentifier(), BB.getIdentifier());
+        CredentialRegistry registry = new CredentialRegistry(List.of(AA, BB));
+        assertEquals(2, registry.size());
+        assertSame(AA, registry.get("Aa"));
+        assertSame(BB, registry.get("BB"));
+        assertSame(BB, registry.get(CredentialKey.of(BB)));
+        assertNull(registry.get("Aa", "dbadmin"));
+
+        assertSame(AA, registry.remove("Aa", OperatingSystem.getUser()));
+        assertNull(registry.get("Aa"));
+        assertSame(BB, registry.get("BB"));
+        assertFalse(registry.containsKey("Aa", OperatingSystem.getUser()));
+    }
+
+    @DetailTest
+    @DisplayName("CredentialRegistry from a binary file keeps colliding credentials")
+    void binaryCollision() throws IOException {
+        Path path = folder.resolve(".credentials");
+        BinaryCredentialFile.write(List.of(AA, BB), path);
+        CredentialStore store = new CredentialStore(path, 0);
+        assertEquals(2, store.readRegistry().size());
+        assertEquals("aa", store.lookup("Aa", OperatingSystem.getUser()).getCred());
+        assertEquals("bb", store.lookup("BB", OperatingSystem.getUser()).getCred());
+        assertEquals(2, store.getRegistry().size());
+    }
+
+    @DetailTest
+    @DisplayName("CredentialRegistry keeps its index in step with concurrent puts and removes of one instance")
+    void concurrent() throws InterruptedException {
+        Credential a = new Credential("shared", "driver", "jdbc:a", new char[]{'p', 'w'}, "a");
+        Credential b = new Credential("shared", "driver", "jdbc:b", new char[]{'p', 'w'}, "b");
+        CredentialRegistry registry = new CredentialRegistry();
+        Thread remover = new Thread(() -> {
+            for (int i = 0; i < 200000; i++) {
+                registry.put(a);
+                registry.remove("shared", "a");
+            }
+        });
+        remover.start();
+        for (int i = 0; i < 200000; i++) {
+            registry.remove("shared", "b");
+            registry.put(b);
+            if (registry.get("shared", "b") == null) break;
+        }
+        remover.join();
+        assertSame(b, registry.get("shared", "b"));
+        assertSame(b, registry.get(CredentialKey.of(b)));
+        assertEquals(1, registry.size());
+    }
+}
@@ -0,0 +1,390 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("CredentialStore Unit Test")
+class CredentialStoreTest {
+
+    @TempDir
+    Path folder;
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("CredentialStore")
+    @Test
+    public @interface DetailTest {
+    }
+
+    private static Credential credential(String instanceName) {
+        return new Credential(instanceName, "org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:" + instanceName,
+                new char[]{'p', 'w'});
+    }
+
+    @DetailTest
+    @DisplayName("CredentialStore.read() of a missing file")
+    void readMissing() throws IOException {
+        CredentialStore store = new CredentialStore(folder.resolve(".credentials"));
+        assertTrue(store.read().isEmpty());
+        assertTrue(store.getSnapshot().isEmpty());
+    }
+
+    @DetailTest
+    @DisplayName("CredentialStore.write() drops inactive credentials")
+    void writeInactive() throws IOException {
+        CredentialStore store = new CredentialStore(folder.resolve(".credentials"));
+        Credentials credentials = new Credentials();
+        Credential kept = credential("kept");
+        Credential dropped = credential("dropped");
+        dropped.setInactive();
+        credentials.put(kept.getIdentifier(), kept);
+        credentials.put(dropped.getIdentifier(), dropped);
+        store.write(credentials);
+
+        Credentials read = store.read();
+        assertEquals(1, read.size());
+        assertEquals("kept", read.get("kept").getInstanceName());
+    }
+
+    @DetailTest
+    @DisplayName("CredentialStore.getSnapshot() is reused until the file changes")
+    void snapshot() throws IOException {
+        Path path = folder.resolve(".credentials");
+        CredentialStore reader = new CredentialStore(path, 0);
+        CredentialStore writer = new CredentialStore(path, 0);
+
+        Credentials credentials = new Credentials();
+        Credential first = credential("first");
+        credentials.put(first.getIdentifier(), first);
+        writer.write(credentials);
+
+        Credentials snapshot = reader.getSnapshot();
+        assertSame(snapshot, reader.getSnapshot());
+
+        Credential second = credential("second");
+        credentials.put(second.getIdentifier(), second);
+        writer.write(credentials);
+        Credentials refreshed = reader.getSnapshot();
+        assertNotSame(snapshot, refreshed);
+        assertNotNull(refreshed.get("second"));
+    }
+
+    @DetailTest
+    @DisplayName("CredentialStore.getSnapshot() is not checked within the refresh interval")
+    void snapshotInterval() throws IOException {
+        Path path = folder.resolve(".credentials");
+        CredentialStore reader = new CredentialStore(path, 60000);
+        CredentialStore writer = new CredentialStore(path, 0);
+
+        Credentials snapshot = reader.getSnapshot();
+        Credentials credentials = new Credentials();
+        Credential first = credential("first");
+        credentials.put(first.getIdentifier(), first);
+        writer.write(credentials);
+
+        assertSame(snapshot, reader.getSnapshot());
+        reader.invalidate();
+        assertNotNull(reader.getSnapshot().get("first"));
+    }
+
+    @DetailTest
+    @DisplayName("CredentialStore.convert(BINARY) and lookup()")
+    void binary() throws IOException {
+        Path path = folder.resolve(".credentials");
+        CredentialStore store = new CredentialStore(path, 0);
+        Credentials credentials = new Credentials();
+        for (int i = 0; i < 100; i++) {
+            Credential credential = credential("instance" + i);
+            credentials.put(credential.getIdentifier(), credential);
+        }
+        store.write(credentials);
+        assertEquals(CredentialStore.Format.JSON, store.getFormat());
+
+        store.convert(CredentialStore.Format.BINARY);
+        assertEquals(CredentialStore.Format.BINARY, store.getFormat());
+        assertTrue(BinaryCredentialFile.isBinary(path));
+        assertEquals(100, BinaryCredentialFile.open(path).size());
+
+        Credential found = store.lookup("instance42", OperatingSystem.getUser());
+        assertEquals("jdbc:derby:memory:instance42", found.getConnectionString());
+        assertEquals("pw", found.getCred());
+        assertNull(store.lookup("instance42", "dbadmin"));
+        assertNull(store.lookup("missing", OperatingSystem.getUser()));
+        assertEquals(100, store.read().size());
+
+        Path json = folder.resolve("export.json");
+        store.exportJson(json);
+        assertFalse(BinaryCredentialFile.isBinary(json));
+        CredentialStore exported = new CredentialStore(json);
+        assertEquals("pw", exported.read().get("instance7").getCred());
+
+        store.importJson(json);
+        assertEquals(CredentialStore.Format.BINARY, store.getFormat());
+        assertEquals(100, store.getSnapshot().size());
+    }
+
+    @DetailTest
+    @DisplayName("CredentialStore.put() and remove() append to the journal")
+    void journal() throws IOException {
+        Path path = folder.resolve(".credentials");
+        CredentialStore store = new CredentialStore(path, 0);
+        store.put(credential("first"));
+        store.put(credential("second"));
+        long size = Files.size(path);
+        store.remove("first", OperatingSystem.getUser());
+
+        assertEquals(size, Files.size(path));
+        Credentials read = store.read();
+        assertEquals(1, read.size());
+        assertNotNull(read.get("second"));
+        assertNull(store.lookup("first", OperatingSystem.getUser()));
+        assertNotNull(store.lookup("second", OperatingSystem.getUser()));
+
+        store.compact();
+        assertEquals(1, new CredentialStore(path).read().size());
+        assertFalse(Files.exists(path.resolveSibling(".credentials.journal")));
+    }
+
+    @DetailTest
+    @DisplayName("CredentialStore journal drops a change torn by an interrupted write, keeping the later changes")
+    void journalTorn() throws IOException {
+        Path path = folder.resolve(".credentials");
+        Path journal = path.resolveSibling(".credentials.journal");
+        CredentialStore store = new CredentialStore(path, 0);
+        store.put(credential("first"));
+        store.put(credential("second"));
+        Files.writeString(journal, "{\"credential\":{\"instanceName\":\"torn", StandardOpenOption.APPEND);
+        store.put(credential("third"));
+        Files.writeString(journal, "not a change\n", StandardOpenOption.APPEND);
+        store.put(credential("fourth"));
+
+        Credentials read = store.read();
+        assertEquals(4, read.size(), read::toString);
+        assertNotNull(read.get("third"));
+        assertNotNull(read.get("fourth"));
+        assertFalse(Files.readString(journal).contains("torn"));
+    }
+
+    @DetailTest
+    @DisplayName("CredentialStore.read() never misses a change committed before it, while the file is replaced")
+    void readDuringCompaction() throws Exception {
+        Path path = folder.resolve(".credentials");
+        CredentialStore store = new CredentialStore(path, 0);
+        CredentialStore reader = new CredentialStore(path, 0);
+        AtomicInteger committed = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> writer = executor.submit(() -> {
+            for (int i = 0; i < 200; i++) {
+                store.put(credential("c" + i));
+                committed.set(i + 1);
+                store.compact();
+            }
+            return null;
+        });
+        while (!writer.isDone()) {
+            int before = committed.get();
+            int read = reader.read().size();
+            assertTrue(read >= before, read + " read after " + before + " committed");
+        }
+        writer.get();
+        executor.shutdown();
+        assertEquals(800, store.getVersion());
+    }
+
+    @DetailTest
+    @DisplayName("CredentialStore reads under the writer's lock past a write stopped short, and the next write ends it")
+    void versionOdd() throws IOException {
+        Path path = folder.resolve(".credentials");
+        CredentialStore store = new CredentialStore(path, 0);
+        store.put(credential("first"));
+        Files.write(path.resolveSibling(".credentials.lock"), new byte[]{0, 0, 0, 0, 0, 0, 0, 3});
+        assertEquals(3, store.getVersion());
+        assertEquals(1, store.read().size());
+        store.put(credential("second"));
+        assertEquals(4, store.getVersion());
+        assertEquals(2, store.read().size());
+    }
+
+    @DetailTest
+    @DisplayName("CredentialStore journal is ignored once the file is replaced")
+    void journalStale() throws IOException {
+        Path path = folder.resolve(".credentials");
+        CredentialStore store = new CredentialStore(path, 0);
+        store.put(credential("first"));
+        Files.delete(path);
+        assertTrue(store.read().isEmpty());
+        store.put(credential("second"));
+        assertEquals(1, store.read().size());
+    }
+
+    @DetailTest
+    @DisplayName("CredentialStore compacts the journal past the threshold")
+    void journalCompaction() throws IOException {
+        Path path = folder.resolve(".credentials");
+        System.setProperty("ConnectionCredential.store.journal", "1024");
+        CredentialStore store;
+        try {
+            store = new CredentialStore(path, 0);
+        } finally {
+            System.clearProperty("ConnectionCredential.store.journal");
+        }
+        store.convert(CredentialStore.Format.BINARY);
+        for (int i = 0; i < 50; i++) store.put(credential("instance" + i));
+        store.awaitCompaction();
+        assertTrue(new CredentialJournal(path).size() <= 1024 + 512);
+        assertEquals(50, store.read().size());
+        assertEquals("pw", store.lookup("instance49", OperatingSystem.getUser()).getCred());
+        assertEquals(CredentialStore.Format.BINARY, store.getFormat());
+    }
+
+    @DetailTest
+    @DisplayName("CredentialStore.update() from concurrent writers loses no update")
+    void updateConcurrent() throws Exception {
+        Path path = folder.resolve(".credentials");
+        int writers = 4;
+        int updates = 25;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            futures.add(executor.submit(() -> {
+                CredentialStore store = new CredentialStore(path, 0);
+                for (int i = 0; i < updates; i++) {
+                    Credential credential = credential("w" + writer + "i" + i);
+                    store.update(credentials -> List.of(credential));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+        executor.shutdown();
+
+        CredentialStore store = new CredentialStore(path, 0);
+        assertEquals(writers * updates, store.read().size());
+        assertEquals(2 * writers * updates, store.getVersion());
+    }
+
+    @DetailTest
+    @DisplayName("CredentialStore.update() retries after a conflicting write")
+    void updateConflict() throws IOException {
+        Path path = folder.resolve(".credentials");
+        CredentialStore store = new CredentialStore(path, 0);
+        CredentialStore other = new CredentialStore(path, 0);
+        int[] attempts = {0};
+        store.update(credentials -> {
+            if (attempts[0]++ == 0) {
+                try {
+                    other.put(credential("other"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return List.of(credential("mine"));
+        });
+        assertEquals(2, attempts[0]);
+        assertEquals(2, store.read().size());
+        assertEquals(4, store.getVersion());
+    }
+    @DetailTest
+    @DisplayName("CredentialStore.scan() streams the file with its journal applied")
+    void scan() throws IOException {
+        for (CredentialStore.Format format : CredentialStore.Format.values()) {
+            Path path = folder.resolve(".credentials-" + format);
+            CredentialStore store = new CredentialStore(path, 0);
+            Credentials credentials = new Credentials();
+            for (String name : List.of("kept", "changed", "removed")) {
+                Credential credential = credential(name);
+                credentials.put(credential.getIdentifier(), credential);
+            }
+            store.write(credentials, format);
+            store.put(new Credential("changed", "driver", "jdbc:changed", new char[]{'p', 'w'}));
+            store.put(credential("added"));
+            store.remove("removed", OperatingSystem.getUser());
+
+            List<String> scanned = new ArrayList<>();
+            store.scan(credential -> true, credential -> scanned.add(credential.getInstanceName() + " "
+                    + credential.getConnectionString()));
+            assertEquals(3, scanned.size(), scanned::toString);
+            assertTrue(scanned.containsAll(List.of("kept jdbc:derby:memory:kept", "changed jdbc:changed",
+                    "added jdbc:derby:memory:added")), scanned::toString);
+
+            scanned.clear();
+            store.scan(credential -> credential.getInstanceName().startsWith("k"),
+                    credential -> scanned.add(credential.getInstanceName()));
+            assertEquals(List.of("kept"), scanned);
+        }
+        List<String> none = new ArrayList<>();
+        new CredentialStore(folder.resolve("missing")).scan(credential -> true, c -> none.add(c.getInstanceName()));
+        assertTrue(none.isEmpty());
+    }
+    @DetailTest
+    @DisplayName("CredentialStore keeps the endpoints, primary and statement cache of a credential in either form")
+    void endpoints() throws IOException {
+        for (CredentialStore.Format format : CredentialStore.Format.values()) {
+            CredentialStore store = new CredentialStore(folder.resolve(".credentials-endpoints-" + format), 0);
+            Credential credential = credential("endpoints");
+            credential.setEndpoints(List.of("jdbc:derby:memory:second", "jdbc:derby:memory:third"));
+            Credentials credentials = new Credentials();
+            credentials.put(credential.getIdentifier(), credential);
+            Credential replica = credential("single");
+            replica.setReplicaOf("endpoints");
+            replica.setStatementCacheSize(100);
+            credentials.put(replica.getIdentifier(), replica);
+            store.write(credentials, format);
+
+            Credentials read = store.read();
+            assertEquals(credential.getEndpoints(), read.get("endpoints").getEndpoints());
+            assertEquals(List.of("jdbc:derby:memory:single"), read.get("single").getEndpoints());
+            assertEquals("endpoints", read.get("single").getReplicaOf());
+            assertNull(read.get("endpoints").getReplicaOf());
+            assertEquals(100, read.get("single").getStatementCacheSize());
+            assertEquals(0, read.get("endpoints").getStatementCacheSize());
+            assertEquals("pw", read.get("endpoints").getCred());
+        }
+    }
+    @DetailTest
+    @DisplayName("CredentialStore.read(instanceName) reads only the credentials of the instance, journal applied")
+    void readInstance() throws IOException {
+        for (CredentialStore.Format format : CredentialStore.Format.values()) {
+            CredentialStore store = new CredentialStore(folder.resolve(".credentials-instance-" + format), 0);
+            Credentials credentials = new Credentials();
+            for (String name : List.of("wanted", "other", "another")) {
+                Credential credential = credential(name);
+                credentials.put(credential.getIdentifier(), credential);
+            }
+            Credential admin = new Credential("wanted", "driver", "jdbc:admin", new char[]{'p', 'w'}, "dbadmin");
+            credentials.put(admin.getIdentifier(), admin);
+            store.write(credentials, format);
+            store.put(credential("added"));
+            store.put(new Credential("wanted", "driver", "jdbc:changed", new char[]{'p', 'w'}));
+
+            Credentials read = store.read("wanted");
+            assertEquals(2, read.size());
+            assertEquals("jdbc:changed", read.get("wanted").getConnectionString());
+            assertEquals("pw", read.get("wanted").getCred());
+            assertEquals("jdbc:admin", read.get("wanted", "dbadmin").getConnectionString());
+            assertTrue(store.read("missing").isEmpty());
+        }
+    }
+}
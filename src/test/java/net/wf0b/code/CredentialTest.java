@@ -8,8 +8,14 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
 import java.util.Properties;
+import java.util.logging.Logger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -80,4 +86,104 @@ class CredentialTest {
     void getCred() {
         assertEquals("PaSsW0Rd", CREDENTIAL.getCred());
     }
-}
\ No newline at end of file
+
+    @DetailTest
+    @DisplayName("Credential.getCred() on another thread")
+    void getCredThreads() throws InterruptedException {
+        Credential credential = new Credential("Threads", "org.apache.derby.jdbc.EmbeddedDriver",
+                "jdbc:derby:memory:Threads", new char[]{'s', 'e', 'c', 'r', 'e', 't'});
+        String[] result = new String[1];
+        Thread thread = new Thread(() -> result[0] = credential.getCred());
+        thread.start();
+        thread.join();
+        assertEquals("secret", result[0]);
+        assertEquals("secret", credential.getCred());
+    }
+
+    @DetailTest
+    @DisplayName("Credential.getCred(char[]) into the caller's characters")
+    void getCredChars() {
+        char[] password = {'p', '\u00e4', 's', 's', '\u20ac'};
+        Credential credential = new Credential("Chars", "org.apache.derby.jdbc.EmbeddedDriver",
+                "jdbc:derby:memory:Chars", password);
+        assertArrayEquals(new char[]{' ', ' ', ' ', ' ', ' '}, password);
+        char[] destination = new char[8];
+        assertEquals(5, credential.getCred(destination));
+        assertEquals("p\u00e4ss\u20ac", new String(destination, 0, 5));
+        assertEquals(-1, credential.getCred(new char[4]));
+        assertEquals("p\u00e4ss\u20ac", credential.getCred());
+    }
+
+    @DetailTest
+    @DisplayName("Credential.getCred(ByteBuffer) as UTF-8 into a direct buffer")
+    void getCredBuffer() {
+        ByteBuffer destination = ByteBuffer.allocateDirect(16);
+        destination.put((byte) 1);
+        assertEquals(8, CREDENTIAL.getCred(destination));
+        assertEquals(9, destination.position());
+        byte[] bytes = new byte[8];
+        destination.flip().position(1);
+        destination.get(bytes);
+        assertEquals("PaSsW0Rd", new String(bytes, StandardCharsets.UTF_8));
+        assertEquals(-1, CREDENTIAL.getCred(ByteBuffer.allocate(7)));
+        assertEquals(-1, new Credential("None", "org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:None",
+                null).getCred(ByteBuffer.allocate(16)));
+    }
+
+    /**
+     * A driver keeping the properties it was called with, and connecting nothing.
+     */
+    public static final class CapturingDriver implements Driver {
+
+        static Properties captured;
+
+        static String password;
+
+        @Override
+        public Connection connect(String url, Properties info) {
+            captured = info;
+            password = info.getProperty("password");
+            return null;
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:capturing:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return Logger.getGlobal();
+        }
+    }
+
+    @DetailTest
+    @DisplayName("Credential.openConnection() wipes the password from the properties once the driver is called")
+    void openConnectionWipes() {
+        Credential credential = new Credential("Capturing", CapturingDriver.class.getName(), "jdbc:capturing:db",
+                "PaSsW0Rd".toCharArray());
+        assertThrows(SQLException.class, () -> credential.openConnection(new Properties()));
+        assertEquals("PaSsW0Rd", CapturingDriver.password);
+        assertNull(CapturingDriver.captured.getProperty("password"));
+    }
+}
@@ -0,0 +1,184 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.nio.file.Files;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("DerbyDatabase Unit Test")
+class DerbyDatabaseTest {
+
+    @TempDir
+    Path home;
+
+    private String userHome;
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("DerbyDatabase")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @BeforeEach
+    void setUp() {
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        DerbyDatabase.shutdownAll();
+        System.setProperty("user.home", userHome);
+    }
+
+    @DetailTest
+    @DisplayName("OperatingSystem.getApplicationHome() is resolved once")
+    void applicationHome() throws IOException {
+        Path first = OperatingSystem.getApplicationHome("ApplicationDatabaseTest");
+        assertTrue(Files.isDirectory(first));
+        assertEquals(first.toString(), System.getProperty("application.home"));
+        assertSame(first, OperatingSystem.getApplicationHome("ApplicationDatabaseTest"));
+    }
+
+    @DetailTest
+    @DisplayName("OperatingSystem.getApplicationConnection() reuses the database connection")
+    void pooled() throws IOException, SQLException {
+        Connection physical;
+        try (Connection connection = OperatingSystem.getApplicationConnection("ApplicationDatabaseTest")) {
+            physical = connection.unwrap(Connection.class);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE T (ID INT)");
+                statement.execute("INSERT INTO T VALUES (1)");
+            }
+        }
+        try (Connection connection = OperatingSystem.getApplicationConnection("ApplicationDatabaseTest");
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM T")) {
+            assertSame(physical, connection.unwrap(Connection.class));
+            assertTrue(resultSet.next());
+            assertEquals(1, resultSet.getInt(1));
+        }
+        assertTrue(Files.isDirectory(home.resolve(".ApplicationDatabaseTest").resolve("database")));
+    }
+
+    @DetailTest
+    @DisplayName("DerbyDatabase tunes Derby before it boots, unless already tuned")
+    void tuning() throws IOException, SQLException {
+        String pageCacheSize = System.getProperty("derby.storage.pageCacheSize");
+        System.setProperty("ConnectionCredential.derby.pageCacheSize", "2000");
+        System.setProperty("ConnectionCredential.derby.logBufferSize", "65536");
+        System.setProperty("derby.storage.logBufferSize", "131072");
+        try {
+            OperatingSystem.getApplicationConnection("ApplicationDatabaseTuning").close();
+            assertEquals(pageCacheSize == null ? "2000" : pageCacheSize,
+                    System.getProperty("derby.storage.pageCacheSize"));
+            assertEquals("131072", System.getProperty("derby.storage.logBufferSize"));
+        } finally {
+            System.clearProperty("ConnectionCredential.derby.pageCacheSize");
+            System.clearProperty("ConnectionCredential.derby.logBufferSize");
+            System.clearProperty("derby.storage.logBufferSize");
+            if (pageCacheSize == null) System.clearProperty("derby.storage.pageCacheSize");
+        }
+    }
+
+    private static int count(DerbyDatabase database) throws SQLException {
+        try (Connection connection = database.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM T")) {
+            assertTrue(resultSet.next());
+            return resultSet.getInt(1);
+        }
+    }
+
+    private static void create(DerbyDatabase database) throws SQLException {
+        try (Connection connection = database.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE T (ID INT)");
+            statement.execute("INSERT INTO T VALUES (1)");
+        }
+    }
+
+    @DetailTest
+    @DisplayName("DerbyDatabase.memory() shares one database without touching the disk, until dropped")
+    void memory() throws SQLException, IOException {
+        DerbyDatabase database = DerbyDatabase.memory("DerbyDatabaseTest");
+        create(database);
+        assertEquals(1, count(DerbyDatabase.memory("DerbyDatabaseTest")));
+        try (Stream<Path> files = Files.list(home)) {
+            assertEquals(0, files.count());
+        }
+        database.drop();
+        assertThrows(SQLException.class, () -> count(database));
+        assertThrows(SQLException.class, () -> DerbyDatabase.directory(home).drop());
+    }
+
+    @DetailTest
+    @DisplayName("DerbyDatabase.shutdown() closes the database, which boots again on the next connection")
+    void directory() throws SQLException {
+        DerbyDatabase database = DerbyDatabase.directory(home.resolve("db"));
+        create(database);
+        database.shutdown();
+        database.shutdown();
+        assertEquals(1, count(database));
+        try (Connection connection = OperatingSystem.getDerbyConnection(home.resolve("db"))) {
+            assertTrue(connection.isValid(5));
+        }
+    }
+
+    @DetailTest
+    @DisplayName("DerbyDatabase.jar() and classpath() open a database read-only")
+    void readOnly() throws SQLException, IOException {
+        DerbyDatabase source = DerbyDatabase.directory(home.resolve("db"));
+        create(source);
+        source.shutdown();
+        Path archive = home.resolve("db.jar");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive));
+             Stream<Path> files = Files.walk(home.resolve("db"))) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!Files.isRegularFile(file)) continue;
+                zip.putNextEntry(new ZipEntry(home.relativize(file).toString().replace('\\', '/')));
+                Files.copy(file, (OutputStream) zip);
+                zip.closeEntry();
+            }
+        }
+
+        DerbyDatabase jar = DerbyDatabase.jar(archive, "db");
+        assertEquals(1, count(jar));
+        try (Connection connection = jar.getConnection(); Statement statement = connection.createStatement()) {
+            assertThrows(SQLException.class, () -> statement.execute("INSERT INTO T VALUES (2)"));
+        }
+
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader classpath = new URLClassLoader(new URL[]{archive.toUri().toURL()}, loader)) {
+            Thread.currentThread().setContextClassLoader(classpath);
+            assertEquals(1, count(DerbyDatabase.classpath("db")));
+        } finally {
+            Thread.currentThread().setContextClassLoader(loader);
+        }
+        for (DerbyDatabase database : List.of(jar, DerbyDatabase.classpath("db"))) database.shutdown();
+    }
+}
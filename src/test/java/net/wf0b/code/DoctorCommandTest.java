@@ -0,0 +1,120 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import picocli.CommandLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("DoctorCommand Unit Test")
+class DoctorCommandTest {
+
+    @TempDir
+    Path home;
+
+    private String userHome;
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("DoctorCommand")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.toString());
+        CredentialStore store = CredentialStore.getDefault();
+        store.put(new Credential("doctor-up", "org.apache.derby.iapi.jdbc.AutoloadedDriver",
+                "jdbc:derby:memory:DoctorCommandTest;create=true", new char[]{'p', 'w'}));
+        store.put(new Credential("doctor-down", "org.apache.derby.iapi.jdbc.AutoloadedDriver",
+                "jdbc:derby:memory:DoctorCommandTestMissing", new char[]{'p', 'w'}));
+        store.put(new Credential("doctor-nodriver", "no.such.Driver", "jdbc:nosuch:db", new char[]{'p', 'w'}));
+        store.put(new Credential("other", "org.apache.derby.iapi.jdbc.AutoloadedDriver",
+                "jdbc:derby:memory:DoctorCommandTest;create=true", new char[]{'p', 'w'}));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setProperty("user.home", userHome);
+    }
+
+    private static List<String> doctor(int exitCode, String... args) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+            String[] arguments = new String[args.length + 1];
+            arguments[0] = "doctor";
+            System.arraycopy(args, 0, arguments, 1, args.length);
+            assertEquals(exitCode, new CommandLine(new ConnectionCredential()).execute(arguments));
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString(StandardCharsets.UTF_8).lines().toList();
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionCredential doctor reports the server version, or the failure, of each credential")
+    void report() {
+        List<String> lines = doctor(1, "-i", "doctor-", "-w", "2");
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0).startsWith("INSTANCE"));
+        String up = lines.stream().filter(line -> line.startsWith("doctor-up ")).findFirst().orElseThrow();
+        assertTrue(up.contains("Apache Derby"), up);
+        String down = lines.stream().filter(line -> line.startsWith("doctor-down ")).findFirst().orElseThrow();
+        assertTrue(down.contains("FAILED"), down);
+        String nodriver = lines.stream().filter(line -> line.startsWith("doctor-nodriver ")).findFirst().orElseThrow();
+        assertTrue(nodriver.contains("FAILED driver:"), nodriver);
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionCredential doctor exits with 0 when every probe succeeds, writing JSON lines")
+    void json() {
+        List<String> lines = doctor(0, "-i", "other", "-f", "JSON");
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).startsWith("{\"instance\":\"other\""), lines.get(0));
+        assertTrue(lines.get(0).contains("\"server\":\"Apache Derby"), lines.get(0));
+    }
+
+    @DetailTest
+    @DisplayName("DoctorCommand orders the outcomes slowest first")
+    void slowestFirst() throws IOException {
+        DoctorCommand command = new DoctorCommand();
+        new CommandLine(command).parseArgs("-i", "doctor-");
+        List<DoctorCommand.Probe> probes = command.probe();
+        assertEquals(3, probes.size());
+        for (int i = 1; i < probes.size(); i++)
+            assertTrue(probes.get(i - 1).millis() >= probes.get(i).millis());
+    }
+
+    @DetailTest
+    @DisplayName("DoctorCommand reports the driver load time once per driver, and the driver as cached after")
+    void driverCached() throws IOException {
+        DriverCache.clear();
+        DoctorCommand command = new DoctorCommand();
+        new CommandLine(command).parseArgs("-i", "doctor-", "-w", "1");
+        List<DoctorCommand.Probe> derby = command.probe().stream()
+                .filter(probe -> !probe.instance().equals("doctor-nodriver")).toList();
+        assertEquals(2, derby.size());
+        assertEquals(1, derby.stream().filter(probe -> probe.driverMillis() == null).count());
+        assertTrue(doctor(1, "-i", "doctor-").stream().anyMatch(line -> line.contains(" cached ")));
+    }
+}
@@ -0,0 +1,55 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("DriverCache Unit Test")
+class DriverCacheTest {
+
+    private static final String URL = "jdbc:derby:memory:DriverCacheTest;create=true";
+
+    private static final String DRIVER = "org.apache.derby.iapi.jdbc.AutoloadedDriver";
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("DriverCache")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @DetailTest
+    @DisplayName("DriverCache.get() keeps the driver named")
+    void named() throws SQLException {
+        DriverCache.clear();
+        Driver driver = DriverCache.get(DRIVER, URL);
+        assertEquals(DRIVER, driver.getClass().getName());
+        assertSame(driver, DriverCache.get(DRIVER, URL));
+        try (Connection connection = driver.connect(URL, new Properties())) {
+            assertTrue(connection.isValid(5));
+        }
+    }
+
+    @DetailTest
+    @DisplayName("DriverCache.get() falls back to the DriverManager")
+    void fallback() throws SQLException {
+        DriverCache.clear();
+        Driver driver = DriverCache.get("net.wf0b.code.NoDriver", URL);
+        assertSame(DriverManager.getDriver(URL).getClass(), driver.getClass());
+        assertSame(driver, DriverCache.get(null, URL));
+        assertThrows(SQLException.class, () -> DriverCache.get(DRIVER, "jdbc:none:DriverCacheTest"));
+    }
+}
@@ -0,0 +1,127 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("EndpointHealth Unit Test")
+class EndpointHealthTest {
+
+    private static final String PRIMARY = "jdbc:derby:memory:EndpointHealthPrimary";
+
+    private static final String SECONDARY = "jdbc:derby:memory:EndpointHealthSecondary;create=true";
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("EndpointHealth")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @BeforeEach
+    void setUp() {
+        EndpointHealth.clear();
+        System.setProperty("ConnectionCredential.endpoint.retry", "50");
+    }
+
+    @AfterEach
+    void tearDown() {
+        EndpointHealth.clear();
+        System.clearProperty("ConnectionCredential.endpoint.retry");
+    }
+
+    @DetailTest
+    @DisplayName("EndpointHealth.order() puts the fastest first and endpoints that are down last")
+    void order() {
+        List<String> declared = List.of("a", "b", "c", "d");
+        assertEquals(declared, EndpointHealth.order(declared));
+        EndpointHealth.succeeded("a", 3_000_000);
+        EndpointHealth.succeeded("c", 1_000_000);
+        EndpointHealth.failed("b", () -> {
+            throw new SQLException("down");
+        });
+        assertEquals(List.of("c", "a", "d", "b"), EndpointHealth.order(declared));
+        assertTrue(EndpointHealth.get("b").down());
+        assertEquals(1_000_000, EndpointHealth.get("c").latencyNanos());
+    }
+
+    @DetailTest
+    @DisplayName("Credential.getConnection() fails over once and routes around the endpoint that is down")
+    void failover() throws Exception {
+        Credential credential = new Credential("EndpointHealthTest", "org.apache.derby.iapi.jdbc.AutoloadedDriver",
+                PRIMARY, new char[]{'p', 'w'});
+        credential.setEndpoints(List.of(SECONDARY));
+        assertEquals(List.of(PRIMARY, SECONDARY), credential.getEndpoints());
+
+        try (Connection connection = credential.openConnection(new Properties())) {
+            assertTrue(connection.getMetaData().getURL().startsWith("jdbc:derby:memory:EndpointHealthSecondary"));
+        }
+        EndpointHealth.Snapshot primary = EndpointHealth.get(PRIMARY);
+        assertTrue(primary.down());
+        try (Connection connection = credential.openConnection(new Properties())) {
+            assertTrue(connection.getMetaData().getURL().startsWith("jdbc:derby:memory:EndpointHealthSecondary"));
+        }
+        assertEquals(primary.failureRate(), EndpointHealth.get(PRIMARY).failureRate());
+
+        // the primary comes back, and a probe finds it
+        DriverManager.getConnection(PRIMARY + ";create=true").close();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (EndpointHealth.get(PRIMARY).down() && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertFalse(EndpointHealth.get(PRIMARY).down());
+    }
+
+    @DetailTest
+    @DisplayName("Credential.getConnection() reports the first failure when every endpoint fails")
+    void allDown() {
+        Credential credential = new Credential("EndpointHealthAllDown", "org.apache.derby.iapi.jdbc.AutoloadedDriver",
+                "jdbc:derby:memory:EndpointHealthNone1", new char[]{'p', 'w'});
+        credential.setEndpoints(List.of("jdbc:derby:memory:EndpointHealthNone2"));
+        SQLException e = assertThrows(SQLException.class, () -> credential.openConnection(new Properties()));
+        assertEquals(1, e.getSuppressed().length);
+    }
+
+    @DetailTest
+    @DisplayName("EndpointHealth probes each endpoint apart, so a probe that hangs delays no other")
+    void probeHangs() throws Exception {
+        CountDownLatch hung = new CountDownLatch(1);
+        AtomicInteger hungProbes = new AtomicInteger();
+        try {
+            EndpointHealth.failed("hung", () -> {
+                hungProbes.incrementAndGet();
+                hung.await(10, TimeUnit.SECONDS);
+                throw new SQLException("timed out");
+            });
+            EndpointHealth.failed("back", () -> DriverManager.getConnection(SECONDARY));
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (EndpointHealth.get("back").down() && System.currentTimeMillis() < deadline) Thread.sleep(20);
+            assertFalse(EndpointHealth.get("back").down());
+            assertTrue(EndpointHealth.get("hung").down());
+            // requests failing meanwhile start no second probe of the endpoint
+            EndpointHealth.failed("hung", () -> {
+                throw new SQLException("down");
+            });
+            Thread.sleep(200);
+            assertEquals(1, hungProbes.get());
+        } finally {
+            hung.countDown();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("LeakDetector Unit Test")
+class LeakDetectorTest {
+
+    private static final Credential CREDENTIAL = new Credential("LeakDetectorTest",
+            "org.apache.derby.iapi.jdbc.AutoloadedDriver", "jdbc:derby:memory:LeakDetectorTest;create=true",
+            new char[]{'p', 'w'});
+
+    private final List<LeakDetector.Leak> leaks = new CopyOnWriteArrayList<>();
+
+    private final LeakDetector.Listener listener = leaks::add;
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("LeakDetector")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @BeforeEach
+    void setUp() {
+        LeakDetector.clear();
+        LeakDetector.addListener(listener);
+    }
+
+    @AfterEach
+    void tearDown() {
+        LeakDetector.removeListener(listener);
+        LeakDetector.setThreshold(0);
+        LeakDetector.setSampleRate(100);
+        LeakDetector.clear();
+    }
+
+    @DetailTest
+    @DisplayName("LeakDetector reports a connection held past the threshold once, with where it was acquired")
+    void leaked() throws SQLException, InterruptedException {
+        LeakDetector.setThreshold(20);
+        LeakDetector.setSampleRate(1);
+        try (Connection connection = CREDENTIAL.getConnection(new Properties())) {
+            assertFalse(connection.isClosed());
+            Thread.sleep(50);
+            LeakDetector.check();
+            LeakDetector.check();
+            assertEquals(1, leaks.size());
+            LeakDetector.Leak leak = leaks.get(0);
+            assertEquals(CredentialKey.of(CREDENTIAL), leak.key());
+            assertEquals(Thread.currentThread().getName(), leak.thread());
+            assertTrue(leak.heldMillis() >= 20);
+            assertNotNull(leak.stack());
+            assertFalse(leak.collected());
+            assertEquals(1, LeakDetector.getOldest(10).size());
+        }
+        assertTrue(LeakDetector.getOldest(10).isEmpty());
+    }
+
+    @DetailTest
+    @DisplayName("LeakDetector lists the oldest connections open first, sampling stacks")
+    void oldest() throws SQLException, InterruptedException {
+        LeakDetector.setThreshold(60000);
+        LeakDetector.setSampleRate(Integer.MAX_VALUE);
+        try (Connection first = CREDENTIAL.getConnection(new Properties())) {
+            Thread.sleep(5);
+            try (Connection second = CREDENTIAL.getConnection(new Properties())) {
+                List<LeakDetector.Leak> oldest = LeakDetector.getOldest(10);
+                assertEquals(2, oldest.size());
+                assertTrue(oldest.get(0).heldMillis() >= oldest.get(1).heldMillis());
+                assertEquals(1, LeakDetector.getOldest(1).size());
+                LeakDetector.check();
+                assertTrue(leaks.isEmpty());
+            }
+            assertEquals(1, LeakDetector.getOldest(10).size());
+        }
+    }
+
+    @DetailTest
+    @DisplayName("LeakDetector tracks nothing when off")
+    void off() throws SQLException {
+        try (Connection connection = CREDENTIAL.getConnection(new Properties())) {
+            assertFalse(connection.toString().startsWith("Tracked"));
+            assertTrue(LeakDetector.getOldest(10).isEmpty());
+        }
+    }
+
+    @DetailTest
+    @DisplayName("LeakDetector returns a pooled connection garbage collected without being closed to its pool")
+    void collected() throws SQLException, InterruptedException {
+        LeakDetector.setThreshold(60000);
+        ConnectionPool.setPooled(true);
+        try {
+            ConnectionPool pool = ConnectionPool.of(CREDENTIAL, new Properties());
+            CREDENTIAL.getConnection(new Properties()).getAutoCommit();
+            assertEquals(1, pool.getActive());
+            for (int i = 0; i < 100 && leaks.isEmpty(); i++) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            assertEquals(1, leaks.size());
+            assertTrue(leaks.get(0).collected());
+            assertEquals(0, pool.getActive());
+            assertEquals(1, pool.getIdle());
+        } finally {
+            ConnectionPool.setPooled(false);
+        }
+    }
+}
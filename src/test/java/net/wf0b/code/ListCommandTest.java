@@ -0,0 +1,93 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import picocli.CommandLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("ListCommand Unit Test")
+class ListCommandTest {
+
+    @TempDir
+    Path home;
+
+    private String userHome;
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("ListCommand")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.toString());
+        CredentialStore store = CredentialStore.getDefault();
+        store.put(new Credential("sales", "org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:sales",
+                new char[]{'p', 'w'}));
+        store.put(new Credential("sales-archive", "org.postgresql.Driver", "jdbc:postgresql://db/archive",
+                new char[]{'p', 'w'}, "dbadmin"));
+        store.put(new Credential("payroll", "org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:payroll",
+                new char[]{'p', 'w'}, "dbadmin"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setProperty("user.home", userHome);
+    }
+
+    private static List<String> list(String... args) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+            String[] arguments = new String[args.length + 1];
+            arguments[0] = "list";
+            System.arraycopy(args, 0, arguments, 1, args.length);
+            assertEquals(0, new CommandLine(new ConnectionCredential()).execute(arguments));
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString(StandardCharsets.UTF_8).lines().toList();
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionCredential list filters by instance prefix, role and driver")
+    void filter() {
+        assertEquals(4, list().size());
+        assertEquals(3, list("-i", "sales").size());
+        assertEquals(2, list("-i", "sales", "-r", "dbadmin").size());
+        List<String> lines = list("-r", "dbadmin", "-d", "org.apache.derby.jdbc.EmbeddedDriver");
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("INSTANCE"));
+        assertTrue(lines.get(1).startsWith("payroll "));
+        assertEquals(1, list("-i", "none").size());
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionCredential list writes JSON lines without passwords")
+    void json() {
+        List<String> lines = list("-f", "JSON", "-i", "sales-");
+        assertEquals(List.of("{\"instance\":\"sales-archive\",\"role\":\"dbadmin\",\"driver\":\"org.postgresql.Driver\","
+                + "\"string\":\"jdbc:postgresql://db/archive\"}"), lines);
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
@@ -140,7 +141,16 @@ class OperatingSystemTest {
     @DetailTest
     @DisplayName("OperatingSystem.getKey()")
     void getKey() {
-
+        SecretKeySpec key = OperatingSystem.getKey();
+        assertSame(key, OperatingSystem.getKey());
+        String user = System.getProperty("user.name");
+        try {
+            System.setProperty("user.name", user + "-other");
+            assertNotEquals(key, OperatingSystem.getKey());
+        } finally {
+            System.setProperty("user.name", user);
+        }
+        assertEquals(key, OperatingSystem.getKey());
     }
 
     @DetailTest
@@ -0,0 +1,142 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("ReplicaRouter Unit Test")
+class ReplicaRouterTest {
+
+    private static final String DRIVER = "org.apache.derby.iapi.jdbc.AutoloadedDriver";
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("ReplicaRouter")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("ConnectionCredential.route");
+    }
+
+    private static Credential credential(String instanceName, String database, String replicaOf) {
+        Credential credential = new Credential(instanceName, DRIVER, "jdbc:derby:memory:" + database + ";create=true",
+                new char[]{'p', 'w'});
+        credential.setReplicaOf(replicaOf);
+        return credential;
+    }
+
+    private static Credentials credentials(String prefix) {
+        Credentials credentials = new Credentials();
+        for (Credential credential : List.of(credential(prefix, prefix + "Primary", null),
+                credential(prefix + "-r1", prefix + "Replica1", prefix),
+                credential(prefix + "-r2", prefix + "Replica2", prefix))) {
+            credentials.put(credential.getIdentifier(), credential);
+        }
+        return credentials;
+    }
+
+    private static String database(Connection connection) throws SQLException {
+        String url = connection.getMetaData().getURL();
+        return url.substring("jdbc:derby:memory:".length());
+    }
+
+    @DetailTest
+    @DisplayName("Credentials.getConnection() sends writes to the primary and spreads reads by round-robin")
+    void roundRobin() throws SQLException {
+        Credentials credentials = credentials("RoundRobin");
+        String user = OperatingSystem.getUser();
+        assertEquals(2, credentials.getReplicas("RoundRobin", user).size());
+
+        try (Connection connection = credentials.getConnection("RoundRobin", user, Intent.WRITE, new Properties())) {
+            assertEquals("RoundRobinPrimary", database(connection));
+            assertFalse(connection.isReadOnly());
+        }
+        List<String> reads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            try (Connection connection = credentials.getConnection("RoundRobin", user, Intent.READ, new Properties())) {
+                reads.add(database(connection));
+                assertTrue(connection.isReadOnly());
+            }
+        }
+        assertEquals(reads.get(0), reads.get(2));
+        assertEquals(reads.get(1), reads.get(3));
+        assertNotEquals(reads.get(0), reads.get(1));
+        assertFalse(reads.contains("RoundRobinPrimary"));
+
+        credentials.remove("RoundRobin-r1", user);
+        credentials.remove("RoundRobin-r2", user);
+        assertTrue(credentials.getReplicas("RoundRobin", user).isEmpty());
+        try (Connection connection = credentials.getConnection("RoundRobin", user, Intent.READ, new Properties())) {
+            assertEquals("RoundRobinPrimary", database(connection));
+            assertTrue(connection.isReadOnly());
+        }
+    }
+
+    @DetailTest
+    @DisplayName("Credentials.getConnection() reads from the replica with the fewest connections open")
+    void leastOutstanding() throws SQLException {
+        System.setProperty("ConnectionCredential.route", "least-outstanding");
+        Credentials credentials = credentials("Least");
+        String user = OperatingSystem.getUser();
+        try (Connection held = credentials.getConnection("Least", user, Intent.READ, new Properties())) {
+            String busy = database(held);
+            assertEquals(held, held);
+            assertEquals(System.identityHashCode(held), held.hashCode());
+            assertTrue(held.toString().startsWith("Counted "), held.toString());
+            for (int i = 0; i < 3; i++) {
+                try (Connection connection = credentials.getConnection("Least", user, Intent.READ, new Properties())) {
+                    assertNotEquals(busy, database(connection));
+                }
+            }
+        }
+        for (Credential replica : credentials.getReplicas("Least", user))
+            assertEquals(0, ReplicaRouter.outstanding(replica).get());
+    }
+
+    @DetailTest
+    @DisplayName("Credentials.getConnection() passes over a replica that fails")
+    void replicaDown() throws SQLException {
+        Credentials credentials = new Credentials();
+        Credential primary = credential("Down", "DownPrimary", null);
+        Credential broken = new Credential("Down-r1", DRIVER, "jdbc:derby:memory:DownMissing", new char[]{'p', 'w'});
+        broken.setReplicaOf("Down");
+        credentials.put(primary.getIdentifier(), primary);
+        credentials.put(broken.getIdentifier(), broken);
+        try (Connection connection = credentials.getConnection("Down", OperatingSystem.getUser(), Intent.READ,
+                new Properties())) {
+            assertEquals("DownPrimary", database(connection));
+        }
+    }
+
+    @DetailTest
+    @DisplayName("Credentials.getConnection() of no primary is null, and replicas follow every change to the credentials")
+    void changes() throws SQLException {
+        Credentials credentials = credentials("Changes");
+        String user = OperatingSystem.getUser();
+        assertNull(credentials.getConnection("ChangesMissing", user, Intent.READ, new Properties()));
+
+        assertEquals(2, credentials.getReplicas("Changes", user).size());
+        Credential added = credential("Changes-r3", "ChangesReplica3", "Changes");
+        credentials.putIfAbsent(added.getIdentifier(), added);
+        assertEquals(3, credentials.getReplicas("Changes", user).size());
+        credentials.values().removeIf(credential -> credential == added);
+        assertEquals(2, credentials.getReplicas("Changes", user).size());
+    }
+}
@@ -0,0 +1,100 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tracks the cold start of the command line, each case in a new JVM. The limit, in milliseconds, is the system
+ * property <code>ConnectionCredential.startup.limit</code>.
+ */
+@DisplayName("Startup Unit Test")
+class StartupTest {
+
+    private static final long LIMIT = Long.getLong("ConnectionCredential.startup.limit", 10000);
+
+    @TempDir
+    Path home;
+
+    private String userHome;
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("Startup")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @BeforeEach
+    void setUp() {
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setProperty("user.home", userHome);
+    }
+
+    /**
+     * Looks up a credential and decrypts its password, as a tool would at start-up
+     *
+     * @param args the instance name
+     * @throws IOException for any IO error
+     */
+    public static void main(String[] args) throws IOException {
+        Credential credential = CredentialStore.getDefault().lookup(args[0], OperatingSystem.getUser());
+        System.out.println(credential == null ? "not found" : credential.getCred());
+    }
+
+    private static String run(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Duser.home=" + System.getProperty("user.home"));
+        command.add("-Duser.name=" + System.getProperty("user.name"));
+        command.addAll(List.of(args));
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+        assertTrue(process.waitFor(LIMIT, TimeUnit.MILLISECONDS), "did not exit");
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println(String.join(" ", args) + ": " + millis + " ms");
+        assertEquals(0, process.exitValue(), output);
+        assertTrue(millis < LIMIT, millis + " ms");
+        return output;
+    }
+
+    @DetailTest
+    @DisplayName("ConnectionCredential -V starts within the limit")
+    void version() throws IOException, InterruptedException {
+        assertTrue(run(ConnectionCredential.class.getName(), "-V").contains("ConnectionCredential"));
+    }
+
+    @DetailTest
+    @DisplayName("A lookup starts within the limit")
+    void lookup() throws IOException, InterruptedException {
+        CredentialStore.getDefault().put(new Credential("StartupTest", "org.apache.derby.jdbc.EmbeddedDriver",
+                "jdbc:derby:memory:StartupTest", new char[]{'p', 'w'}));
+        assertEquals("pw", run(StartupTest.class.getName(), "StartupTest"));
+    }
+}
@@ -0,0 +1,133 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("StatementCache Unit Test")
+class StatementCacheTest {
+
+    private static final Credential CREDENTIAL = new Credential("StatementCacheTest",
+            "org.apache.derby.iapi.jdbc.AutoloadedDriver", "jdbc:derby:memory:StatementCacheTest;create=true",
+            new char[]{'p', 'w'});
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("StatementCache")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @BeforeEach
+    void setUp() {
+        StatementCache.clear();
+        CREDENTIAL.setStatementCacheSize(2);
+    }
+
+    private static StatementCache.Counts counts() {
+        return StatementCache.get(CREDENTIAL.getInstanceName(), CREDENTIAL.getAccount());
+    }
+
+    @DetailTest
+    @DisplayName("StatementCache reuses a statement closed and returned, with its parameters cleared")
+    void reuse() throws SQLException {
+        try (Connection connection = CREDENTIAL.openConnection(new Properties())) {
+            PreparedStatement first = connection.prepareStatement("VALUES CAST(? AS INT)");
+            PreparedStatement physical = first.unwrap(PreparedStatement.class);
+            first.setInt(1, 7);
+            try (ResultSet resultSet = first.executeQuery()) {
+                assertTrue(resultSet.next());
+                assertEquals(7, resultSet.getInt(1));
+            }
+            first.close();
+            assertTrue(first.isClosed());
+            assertThrows(SQLException.class, first::executeQuery);
+
+            try (PreparedStatement second = connection.prepareStatement("VALUES CAST(? AS INT)")) {
+                assertSame(physical, second.unwrap(PreparedStatement.class));
+                assertSame(connection, second.getConnection());
+                assertThrows(SQLException.class, second::executeQuery);
+            }
+            assertEquals(new StatementCache.Counts(1, 1), counts());
+        }
+    }
+
+    @DetailTest
+    @DisplayName("StatementCache prepares another statement while one is in use, and evicts the least recently used")
+    void bounded() throws SQLException {
+        try (Connection connection = CREDENTIAL.openConnection(new Properties())) {
+            try (PreparedStatement a = connection.prepareStatement("VALUES 1");
+                 PreparedStatement b = connection.prepareStatement("VALUES 1")) {
+                assertNotSame(a.unwrap(PreparedStatement.class), b.unwrap(PreparedStatement.class));
+            }
+            assertEquals(new StatementCache.Counts(0, 2), counts());
+            PreparedStatement evicted;
+            try (PreparedStatement a = connection.prepareStatement("VALUES 1")) {
+                evicted = a.unwrap(PreparedStatement.class);
+            }
+            connection.prepareStatement("VALUES 2").close();
+            connection.prepareStatement("VALUES 3").close();
+            assertTrue(evicted.isClosed());
+            connection.prepareStatement("VALUES 1").close();
+            assertEquals(new StatementCache.Counts(1, 5), counts());
+        }
+    }
+
+    @DetailTest
+    @DisplayName("StatementCache lives as long as the pooled connection")
+    void pooled() throws SQLException {
+        ConnectionPool.setPooled(true);
+        try {
+            for (int i = 0; i < 3; i++) {
+                try (Connection connection = CREDENTIAL.getConnection(new Properties());
+                     PreparedStatement statement = connection.prepareStatement("VALUES 1")) {
+                    assertTrue(statement.executeQuery().next());
+                }
+            }
+            assertEquals(new StatementCache.Counts(2, 1), counts());
+        } finally {
+            ConnectionPool.closeAll();
+            ConnectionPool.setPooled(false);
+        }
+    }
+
+    @DetailTest
+    @DisplayName("StatementCache closes the open result and restores the limits of a statement returned")
+    void reset() throws SQLException {
+        try (Connection connection = CREDENTIAL.openConnection(new Properties())) {
+            ResultSet open;
+            try (PreparedStatement first = connection.prepareStatement("VALUES 1, 2, 3")) {
+                first.setMaxRows(2);
+                first.setFetchSize(2);
+                first.setQueryTimeout(5);
+                open = first.executeQuery();
+                assertTrue(open.next());
+            }
+            assertTrue(open.isClosed());
+            try (PreparedStatement second = connection.prepareStatement("VALUES 1, 2, 3");
+                 ResultSet resultSet = second.executeQuery()) {
+                assertEquals(new StatementCache.Counts(1, 1), counts());
+                assertEquals(0, second.getMaxRows());
+                assertEquals(0, second.getQueryTimeout());
+                assertNotEquals(2, second.getFetchSize());
+                int rows = 0;
+                while (resultSet.next()) rows++;
+                assertEquals(3, rows);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package net.wf0b.code;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("WarmUp Unit Test")
+class WarmUpTest {
+
+    private static final Credential CREDENTIAL = new Credential("WarmUpTest", "org.apache.derby.jdbc.EmbeddedDriver",
+            "jdbc:derby:memory:WarmUpTest;create=true", new char[]{'p', 'w'});
+
+    private static final Credential MISSING_DRIVER = new Credential("WarmUpMissingDriver", "net.wf0b.code.NoDriver",
+            "jdbc:none:WarmUpMissingDriver", new char[]{'p', 'w'});
+
+    @Target({ElementType.TYPE, ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Tag("detail")
+    @Tag("WarmUp")
+    @Test
+    public @interface DetailTest {
+    }
+
+    @DetailTest
+    @DisplayName("WarmUp.parse() reads instance:role pairs")
+    void parse() {
+        assertEquals(List.of(new CredentialKey("a", "dbadmin"), new CredentialKey("b", OperatingSystem.getUser()),
+                        new CredentialKey("c:d", "e")),
+                WarmUp.parse(" a:dbadmin, b,,c:d:e "));
+        assertTrue(WarmUp.parse("").isEmpty());
+    }
+
+    @DetailTest
+    @DisplayName("WarmUp.run() reports readiness of each instance")
+    void run() {
+        CredentialKey ready = CredentialKey.of(CREDENTIAL);
+        CredentialKey missing = new CredentialKey("WarmUpMissing", OperatingSystem.getUser());
+        CredentialKey noDriver = CredentialKey.of(MISSING_DRIVER);
+        Map<CredentialKey, WarmUp.Readiness> result = WarmUp.run(
+                new CredentialRegistry(List.of(CREDENTIAL, MISSING_DRIVER)), List.of(ready, missing, noDriver), 3,
+                Duration.ofSeconds(30));
+
+        assertEquals(List.of(ready, missing, noDriver), List.copyOf(result.keySet()));
+        assertTrue(result.get(ready).ready(), () -> String.valueOf(result.get(ready).failure()));
+        assertEquals(3, result.get(ready).connections());
+        assertFalse(result.get(missing).ready());
+        assertInstanceOf(IOException.class, result.get(missing).failure());
+        assertFalse(result.get(noDriver).ready());
+        assertInstanceOf(SQLException.class, result.get(noDriver).failure());
+        assertSame(result.get(ready), WarmUp.getReadiness("WarmUpTest", OperatingSystem.getUser()));
+    }
+
+    @DetailTest
+    @DisplayName("WarmUp.run() times each instance from the start of its own warm-up")
+    void timedApart() {
+        Credential slow = new Credential("WarmUpSlow", "org.apache.derby.jdbc.EmbeddedDriver",
+                "jdbc:derby:memory:WarmUpTest;create=true", new char[]{'p', 'w'}) {
+            @Override
+            protected Connection acquire(Properties properties) throws SQLException {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.acquire(properties);
+            }
+        };
+        CredentialKey slowKey = CredentialKey.of(slow);
+        CredentialKey fastKey = CredentialKey.of(CREDENTIAL);
+        Map<CredentialKey, WarmUp.Readiness> result = WarmUp.run(new CredentialRegistry(List.of(slow, CREDENTIAL)),
+                List.of(slowKey, fastKey), 1, Duration.ofSeconds(30));
+
+        assertTrue(result.get(slowKey).ready(), () -> String.valueOf(result.get(slowKey).failure()));
+        assertTrue(result.get(fastKey).ready(), () -> String.valueOf(result.get(fastKey).failure()));
+        assertTrue(result.get(slowKey).nanos() >= TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(result.get(fastKey).nanos() < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+}